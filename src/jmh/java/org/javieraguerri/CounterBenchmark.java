@@ -0,0 +1,93 @@
+package org.javieraguerri;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cost of the shared counters in {@link OrderQueue} and {@link OrderProcessor}, updated by many threads at once.
+ * <ul>
+ * <li>adjacent / padded: a producer and a consumer each increment their own counter, laid out next to each
+ * other or padded apart. Adjacent counters share a cache line, so every increment invalidates the other
+ * thread's copy (false sharing).</li>
+ * <li>atomic / adder: four consumers increment the same count, as a single atomic or a striped LongAdder.</li>
+ * </ul>
+ * The difference only shows with the threads on different cores; run it on a machine with several of them.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CounterBenchmark {
+
+    @State(Scope.Group)
+    public static class Adjacent {
+        private final AtomicLong[] counters = {new AtomicLong(), new AtomicLong()}; // Allocated together
+    }
+
+    @State(Scope.Group)
+    public static class Padded {
+        private final PaddedAtomicLong[] counters = {new PaddedAtomicLong(), new PaddedAtomicLong()};
+    }
+
+    @State(Scope.Group)
+    public static class Shared {
+        private final AtomicLong atomic = new AtomicLong();
+        private final LongAdder adder = new LongAdder();
+    }
+
+    @Benchmark
+    @Group("adjacent")
+    @GroupThreads(1)
+    public long adjacentProducer(Adjacent state) {
+        return state.counters[0].incrementAndGet();
+    }
+
+    @Benchmark
+    @Group("adjacent")
+    @GroupThreads(1)
+    public long adjacentConsumer(Adjacent state) {
+        return state.counters[1].incrementAndGet();
+    }
+
+    @Benchmark
+    @Group("padded")
+    @GroupThreads(1)
+    public long paddedProducer(Padded state) {
+        return state.counters[0].incrementAndGet();
+    }
+
+    @Benchmark
+    @Group("padded")
+    @GroupThreads(1)
+    public long paddedConsumer(Padded state) {
+        return state.counters[1].incrementAndGet();
+    }
+
+    @Benchmark
+    @Group("atomic")
+    @GroupThreads(4)
+    public long atomic(Shared state) {
+        return state.atomic.incrementAndGet();
+    }
+
+    @Benchmark
+    @Group("adder")
+    @GroupThreads(4)
+    public void adder(Shared state) {
+        state.adder.increment();
+    }
+}
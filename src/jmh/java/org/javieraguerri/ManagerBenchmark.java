@@ -0,0 +1,89 @@
+package org.javieraguerri;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end pipeline: real {@link Producer}s and {@link Consumer}s started through {@link Manager},
+ * measured as orders processed per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ManagerBenchmark {
+    private static final int ORDERS_PER_INVOCATION = 1000;
+
+    @Param({"monitor", "ringbuffer", "sharded"})
+    private String queueImpl;
+
+    @Param({"4", "64", "1024"})
+    private int maxQueueSize;
+
+    /**
+     * Producers:consumers.
+     */
+    @Param({"1:1", "1:4", "4:1", "4:4"})
+    private String workers;
+
+    /**
+     * none: the scheduler places the workers; pinned: {@link WorkerPlacement} over the NUMA nodes.
+     */
+    @Param({"none", "pinned"})
+    private String placement;
+
+    private Manager manager;
+    private OrderQueueMetrics metrics;
+    private OrderProcessor orderProcessor;
+    private WorkerPlacement workerPlacement;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        orderProcessor = new OrderProcessor();
+        workerPlacement = placement.equals("pinned") ? new WorkerPlacement("", Optional.empty()) : null;
+        metrics = new OrderQueueMetrics(new SimpleMeterRegistry(), 0);
+        manager = new Manager(new OrderQueue(maxQueueSize, queueImpl, metrics), new OrderFactory(), orderProcessor, Optional.empty(), Optional.empty(),
+                Optional.ofNullable(workerPlacement), Optional.empty(), 20, 20, 10000, 10000, 0, 0);
+        String[] ratio = workers.split(":");
+        for (int i = 0; i < Integer.parseInt(ratio[0]); i++)
+            manager.addProducer(0L);
+        for (int i = 0; i < Integer.parseInt(ratio[1]); i++)
+            manager.addConsumer(0L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        manager.shutdown();
+        metrics.close();
+        if (workerPlacement != null)
+            workerPlacement.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ORDERS_PER_INVOCATION)
+    public int pipeline() {
+        int target = orderProcessor.getTotalOrdersProcessed() + ORDERS_PER_INVOCATION;
+        int processed;
+        while ((processed = orderProcessor.getTotalOrdersProcessed()) < target)
+            Thread.onSpinWait();
+        return processed;
+    }
+}
@@ -0,0 +1,137 @@
+package org.javieraguerri;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Producer/consumer handoff through {@link OrderQueue} for every queue engine, queue size and
+ * producer:consumer ratio (1:1, 1:N, N:1, N:N).
+ * Threads spin on the non-blocking offer/poll so that JMH can stop asymmetric groups without leaving
+ * a thread parked on a full or empty queue at the end of an iteration.
+ * Every operation hands over a new order, stamped when it enters the queue.
+ * Subclasses choose how results are reported (throughput or handoff latency percentiles).
+ */
+@State(Scope.Group)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class OrderQueueBenchmark {
+    @Param({"monitor", "ringbuffer", "sharded"})
+    private String queueImpl;
+
+    @Param({"4", "64", "1024"})
+    private int maxQueueSize;
+
+    private OrderQueueMetrics metrics;
+    private OrderQueue orderQueue;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        metrics = new OrderQueueMetrics(new SimpleMeterRegistry(), 0);
+        orderQueue = new OrderQueue(maxQueueSize, queueImpl, metrics);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        iterationEnded(metrics);
+        orderQueue.shutdown();
+        metrics.close();
+    }
+
+    /**
+     * Called by consumers with every order they take, right after it leaves the queue.
+     */
+    protected void handedOver(OrderQueueMetrics metrics, Order order) {
+    }
+
+    protected void iterationEnded(OrderQueueMetrics metrics) {
+    }
+
+    @Benchmark
+    @Group("oneToOne")
+    @GroupThreads(1)
+    public void oneToOneProducer(Control control) {
+        produce(control);
+    }
+
+    @Benchmark
+    @Group("oneToOne")
+    @GroupThreads(1)
+    public Order oneToOneConsumer(Control control) {
+        return consume(control);
+    }
+
+    @Benchmark
+    @Group("oneToMany")
+    @GroupThreads(1)
+    public void oneToManyProducer(Control control) {
+        produce(control);
+    }
+
+    @Benchmark
+    @Group("oneToMany")
+    @GroupThreads(4)
+    public Order oneToManyConsumer(Control control) {
+        return consume(control);
+    }
+
+    @Benchmark
+    @Group("manyToOne")
+    @GroupThreads(4)
+    public void manyToOneProducer(Control control) {
+        produce(control);
+    }
+
+    @Benchmark
+    @Group("manyToOne")
+    @GroupThreads(1)
+    public Order manyToOneConsumer(Control control) {
+        return consume(control);
+    }
+
+    @Benchmark
+    @Group("manyToMany")
+    @GroupThreads(4)
+    public void manyToManyProducer(Control control) {
+        produce(control);
+    }
+
+    @Benchmark
+    @Group("manyToMany")
+    @GroupThreads(4)
+    public Order manyToManyConsumer(Control control) {
+        return consume(control);
+    }
+
+    private void produce(Control control) {
+        Order order = new Order("benchmark");
+        while (!orderQueue.offerOrder(order)) {
+            if (control.stopMeasurement)
+                return;
+            Thread.onSpinWait();
+        }
+    }
+
+    private Order consume(Control control) {
+        Order order;
+        while ((order = orderQueue.pollOrder()) == null) {
+            if (control.stopMeasurement)
+                return null;
+            Thread.onSpinWait();
+        }
+        handedOver(metrics, order);
+        return order;
+    }
+}
@@ -0,0 +1,31 @@
+package org.javieraguerri;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handoff latency, from the order entering the queue to a consumer taking it, recorded in the queue's
+ * latency timer and printed as p50/p99/p99.9 after every iteration.
+ * The score is the average time of an offer or poll call, which includes spinning on a full or empty queue.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OrderQueueLatencyBenchmark extends OrderQueueBenchmark {
+
+    @Override
+    protected void handedOver(OrderQueueMetrics metrics, Order order) {
+        metrics.processed(order);
+    }
+
+    @Override
+    protected void iterationEnded(OrderQueueMetrics metrics) {
+        System.out.printf("%nHandoff latency: p50 %.0f ns, p99 %.0f ns, p99.9 %.0f ns (%d orders)%n",
+                metrics.getLatencyPercentile(0.5, TimeUnit.NANOSECONDS),
+                metrics.getLatencyPercentile(0.99, TimeUnit.NANOSECONDS),
+                metrics.getLatencyPercentile(0.999, TimeUnit.NANOSECONDS),
+                metrics.getLatency().count());
+    }
+}
@@ -1,46 +1,161 @@
 package org.javieraguerri;
 
-import lombok.SneakyThrows;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 
-public class Consumer {
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subscribes to the queue through an {@link OrderPublisher} and processes the orders it receives, requesting
+ * batchSize at a time. Orders delivered in one go are processed together when batchSize is above 1.
+ * If processing fails the consumer stops, and its orders go back in the queue for the other consumers.
+ */
+@Slf4j
+public class Consumer implements OrderPublisher.BatchSubscriber {
+    @Getter
+    private final String name;
     private final OrderQueue orderQueue;
     private final OrderProcessor orderProcessor;
-    private final Thread consumerThread;
-    private final long delayMs;
+    private final OrderDeduplicator deduplicator;
+    private final OrderTracer tracer;
+    private final Pacer pacer;
+    private final int batchSize;
+    private final List<Order> batch;
+    private final List<Order> duplicates;
+    private final FailureListener failureListener;
+    private int delivered;
+    private final OrderSubscription subscription;
+    private Flow.Subscription upstream; // The same subscription, already set when the first order is delivered
+
+    public Consumer(OrderQueue orderQueue, long delayMs, int batchSize, OrderProcessor orderProcessor, int threadID,
+                    ExecutorService executor) {
+        this(orderQueue, Pacer.fixedDelay(delayMs), batchSize, orderProcessor, threadID, executor);
+    }
 
-    public Consumer(OrderQueue orderQueue, long delayMs, OrderProcessor orderProcessor, int threadID) {
+    public Consumer(OrderQueue orderQueue, Pacer pacer, int batchSize, OrderProcessor orderProcessor, int threadID,
+                    ExecutorService executor) {
+        this(orderQueue, pacer, batchSize, orderProcessor, null, threadID, executor, null);
+    }
+
+    /**
+     * With a deduplicator, orders it has already seen are dropped instead of processed; orders put back in the
+     * queue after a consumer failed are not checked again. The failure listener, if any, is told when processing
+     * fails.
+     */
+    public Consumer(OrderQueue orderQueue, Pacer pacer, int batchSize, OrderProcessor orderProcessor,
+                    OrderDeduplicator deduplicator, int threadID, ExecutorService executor,
+                    FailureListener failureListener) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        this.name = "Consumer-" + threadID;
         this.orderQueue = orderQueue;
-        this.delayMs = delayMs;
+        this.pacer = pacer;
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+        this.duplicates = new ArrayList<>(batchSize);
+        this.failureListener = failureListener;
         this.orderProcessor = orderProcessor;
-        this.consumerThread = new Thread(this::run, "Consumer-" + threadID);
-        consumerThread.start();
-        System.out.println("Created " + consumerThread.getName());
+        this.deduplicator = deduplicator;
+        this.tracer = orderQueue.getMetrics().registerTracer(name);
+        this.subscription = new OrderPublisher(orderQueue, executor).subscribe(this, name);
     }
 
-    @SneakyThrows
     public void shutdown() {
-        consumerThread.join();
+        subscription.join();
+    }
+
+    public boolean join(long timeout, TimeUnit unit) throws InterruptedException {
+        return subscription.join(timeout, unit);
+    }
+
+    public void join() {
+        subscription.join();
     }
 
-    @SneakyThrows
     public void kill() {
-        consumerThread.interrupt();
+        subscription.interrupt();
+    }
+
+    /**
+     * Lets the consumer finish the order or batch in hand and exit before taking another one.
+     * It is only interrupted if it is waiting on an empty queue, so it is never interrupted mid-order.
+     */
+    public void retire() {
+        subscription.cancel();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.upstream = subscription;
+        subscription.request(batchSize);
+    }
+
+    @Override
+    public void onNext(Order order) {
+        delivered++;
+        if (deduplicator != null && !order.isRedelivered() && deduplicator.isDuplicate(order))
+            duplicates.add(order); // Released with the batch, as the subscription may still give it back
+        else
+            batch.add(order);
     }
 
-    public void run() {
-        System.out.println(Thread.currentThread().getName() + " started");
+    /**
+     * Processes the orders received, then waits for the pacer before asking for more.
+     */
+    @Override
+    public void onBatchEnd() {
+        try {
+            if (batch.size() == 1 && batchSize == 1)
+                orderProcessor.processOrder(batch.get(0));
+            else if (!batch.isEmpty())
+                orderProcessor.processOrders(batch);
+        } catch (RuntimeException e) {
+            batch.clear(); // The subscription puts them back in the queue
+            duplicates.clear();
+            if (failureListener != null)
+                failureListener.failed(this);
+            throw e;
+        }
+        for (Order order : duplicates)
+            order.release();
+        duplicates.clear();
+        long processedAt = System.nanoTime();
+        for (Order order : batch) {
+            order.markProcessed(processedAt);
+            orderQueue.getMetrics().processed(order);
+            tracer.processed(order);
+            order.release();
+        }
+        int processed = batch.size();
+        int requested = delivered;
+        batch.clear();
+        delivered = 0;
         try {
-            while (true) {
-                synchronized (orderQueue.getLock()) {
-                    Order order = orderQueue.removeOrder();
-                    if (order == null)
-                        break;
-                    orderProcessor.processOrder(order);
-                }
-                Thread.sleep(delayMs);
-            }
+            pacer.pace(processed);
         } catch (InterruptedException e) {
-            System.out.println(Thread.currentThread().getName() + " shut down");
+            Thread.currentThread().interrupt(); // Stops the subscription at its next wait
+            return;
         }
+        upstream.request(requested);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (!(throwable instanceof InterruptedException))
+            log.error("Subscription failed", throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        log.info("Queue drained");
+    }
+
+    @FunctionalInterface
+    public interface FailureListener {
+        void failed(Consumer consumer);
     }
 }
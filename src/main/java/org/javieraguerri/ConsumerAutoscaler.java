@@ -0,0 +1,136 @@
+package org.javieraguerri;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds consumers while the queue is backing up and retires them once it stays drained.
+ * <p>
+ * Every sample looks at the queue depth (as a fraction of its capacity), the time producers spent blocked on a
+ * full queue and the p99 enqueue-to-process latency. Scaling up needs {@code upSamples} consecutive overloaded
+ * samples and scaling down {@code downSamples} consecutive idle ones; depths between the two watermarks reset
+ * both streaks. After every change the controller waits {@code cooldownMs} so the new consumers can take
+ * effect before it looks again. Consumers are added in steps of half the current count (at least one) to
+ * follow bursts quickly, and retired one at a time.
+ * <p>
+ * It can't be enabled together with a {@link Pipeline}, which has no consumers but stage workers.
+ */
+@Component
+@ConditionalOnProperty(name = "multithreading.autoscaler.enabled", havingValue = "true")
+@Slf4j
+public class ConsumerAutoscaler {
+    private final Manager manager;
+    private final OrderQueue orderQueue;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ConsumerAutoscaler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${multithreading.autoscaler.intervalMs:1000}")
+    private long intervalMs;
+    @Value("${multithreading.autoscaler.cooldownMs:5000}")
+    private long cooldownMs;
+    @Value("${multithreading.autoscaler.minConsumers:1}")
+    private int minConsumers;
+    @Value("${multithreading.autoscaler.highWatermark:0.75}")
+    private double highWatermark;
+    @Value("${multithreading.autoscaler.lowWatermark:0.25}")
+    private double lowWatermark;
+    @Value("${multithreading.autoscaler.producerBlockedThreshold:0.1}")
+    private double producerBlockedThreshold;
+    @Value("${multithreading.autoscaler.latencyTargetMs:0}")
+    private double latencyTargetMs;
+    @Value("${multithreading.autoscaler.upSamples:2}")
+    private int upSamples;
+    @Value("${multithreading.autoscaler.downSamples:5}")
+    private int downSamples;
+    @Value("${multithreading.autoscaler.consumer.delayMs:100}")
+    private long consumerDelayMs;
+    @Value("${multithreading.autoscaler.consumer.batchSize:1}")
+    private int consumerBatchSize;
+
+    private int overloadedStreak;
+    private int idleStreak;
+    private long cooldownUntil;
+
+    public ConsumerAutoscaler(Manager manager, OrderQueue orderQueue, Optional<Pipeline> pipeline) {
+        if (pipeline.isPresent())
+            throw new IllegalStateException("multithreading.autoscaler.enabled needs consumers, which a pipeline does not use");
+        this.manager = manager;
+        this.orderQueue = orderQueue;
+    }
+
+    @PostConstruct
+    public void start() {
+        log.info("Autoscaling consumers between {} and {} every {} ms", minConsumers, manager.getConsumerLimit(), intervalMs);
+        cooldownUntil = System.nanoTime();
+        scheduler.scheduleWithFixedDelay(this::sample, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void sample() {
+        try {
+            if (!manager.isShutdown())
+                scale(System.nanoTime());
+        } catch (RuntimeException e) {
+            log.warn("Autoscaler sample failed", e); // Keep the schedule alive
+        }
+    }
+
+    private void scale(long now) {
+        OrderQueueMetrics metrics = orderQueue.getMetrics();
+        int consumers = manager.getActiveConsumers();
+        double depth = (double) orderQueue.currentSize() / orderQueue.getMaxQueueSize();
+        double producerBlocked = metrics.getProducerBlockedRate();
+        double latencyP99Ms = metrics.getLatencyPercentile(0.99, TimeUnit.MILLISECONDS);
+        boolean latencyHigh = latencyTargetMs > 0 && latencyP99Ms > latencyTargetMs;
+
+        if (depth >= highWatermark || producerBlocked > producerBlockedThreshold || latencyHigh) {
+            overloadedStreak++;
+            idleStreak = 0;
+        } else if (depth <= lowWatermark && producerBlocked == 0 && !latencyHigh) {
+            idleStreak++;
+            overloadedStreak = 0;
+        } else {
+            overloadedStreak = 0;
+            idleStreak = 0;
+        }
+
+        if (now - cooldownUntil < 0)
+            return;
+        if (consumers < minConsumers) {
+            resize(consumers, minConsumers, now);
+        } else if (overloadedStreak >= upSamples && consumers < manager.getConsumerLimit()) {
+            log.info("Queue overloaded (depth {}%, producers blocked {} s/s, p99 {} ms)",
+                    Math.round(depth * 100), producerBlocked, latencyP99Ms);
+            resize(consumers, Math.min(manager.getConsumerLimit(), consumers + Math.max(1, consumers / 2)), now);
+        } else if (idleStreak >= downSamples && consumers > minConsumers) {
+            resize(consumers, consumers - 1, now);
+        }
+    }
+
+    private void resize(int from, int to, long now) {
+        log.info("Scaling consumers from {} to {}", from, to);
+        for (int i = from; i < to; i++)
+            manager.addConsumer(consumerDelayMs, consumerBatchSize);
+        for (int i = from; i > to; i--)
+            manager.removeConsumer();
+        overloadedStreak = 0;
+        idleStreak = 0;
+        cooldownUntil = now + TimeUnit.MILLISECONDS.toNanos(cooldownMs);
+    }
+}
@@ -0,0 +1,192 @@
+package org.javieraguerri;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Array;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pins threads to a set of CPUs on Linux.
+ * <p>
+ * It calls sched_setaffinity through the Foreign Function &amp; Memory API when the JVM has it. The project targets
+ * Java 17, where that API is not final, so it is looked up at runtime as for virtual threads. Otherwise it
+ * falls back to the taskset command on the thread's native id. If neither works, threads are left to the
+ * scheduler and a warning is logged once.
+ */
+@Slf4j
+public final class CpuAffinity {
+    private static final Path THREAD_SELF = Path.of("/proc/thread-self");
+    private static final Path NODES = Path.of("/sys/devices/system/node");
+    private static volatile boolean warned = false;
+
+    private CpuAffinity() {
+    }
+
+    /**
+     * Restricts the calling thread to the given CPUs. Returns false if it could not.
+     */
+    public static boolean pinCurrentThread(BitSet cpus) {
+        if (cpus.isEmpty())
+            throw new IllegalArgumentException("No CPUs to pin to");
+        if (Native.SCHED_SETAFFINITY != null && Native.pin(cpus))
+            return true;
+        if (pinWithTaskset(cpus))
+            return true;
+        if (!warned) {
+            warned = true;
+            log.warn("Could not pin threads to CPUs on {}, they are left to the scheduler", System.getProperty("os.name"));
+        }
+        return false;
+    }
+
+    /**
+     * CPUs the calling thread may run on, as a Linux cpu list (e.g. "0-3,8"), or empty if unknown.
+     */
+    public static String currentCpuList() {
+        try {
+            for (String line : Files.readAllLines(THREAD_SELF.resolve("status")))
+                if (line.startsWith("Cpus_allowed_list:"))
+                    return line.substring(line.indexOf(':') + 1).trim();
+        } catch (IOException | UnsupportedOperationException e) {
+            // Not Linux
+        }
+        return "";
+    }
+
+    /**
+     * Parses a Linux cpu list such as "0-3,8".
+     */
+    public static BitSet parseCpuList(String cpuList) {
+        BitSet cpus = new BitSet();
+        for (String range : cpuList.trim().split(",")) {
+            if (range.isBlank())
+                continue;
+            int dash = range.indexOf('-');
+            if (dash < 0)
+                cpus.set(Integer.parseInt(range.trim()));
+            else
+                cpus.set(Integer.parseInt(range.substring(0, dash).trim()), Integer.parseInt(range.substring(dash + 1).trim()) + 1);
+        }
+        return cpus;
+    }
+
+    public static String toCpuList(BitSet cpus) {
+        StringBuilder list = new StringBuilder();
+        for (int from = cpus.nextSetBit(0); from >= 0; from = cpus.nextSetBit(cpus.nextClearBit(from))) {
+            int to = cpus.nextClearBit(from) - 1;
+            if (!list.isEmpty())
+                list.append(',');
+            list.append(from);
+            if (to > from)
+                list.append('-').append(to);
+        }
+        return list.toString();
+    }
+
+    /**
+     * The CPUs of every NUMA node (usually one per socket), or a single set with every CPU if the machine does not
+     * tell.
+     */
+    public static List<BitSet> numaNodes() {
+        List<BitSet> nodes = new ArrayList<>();
+        try (var entries = Files.list(NODES)) {
+            for (Path node : entries.filter(path -> path.getFileName().toString().matches("node\\d+")).sorted().toList()) {
+                BitSet cpus = parseCpuList(Files.readString(node.resolve("cpulist")));
+                if (!cpus.isEmpty())
+                    nodes.add(cpus);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // Not Linux
+        }
+        if (nodes.isEmpty()) {
+            BitSet all = new BitSet();
+            all.set(0, Runtime.getRuntime().availableProcessors());
+            nodes.add(all);
+        }
+        return nodes;
+    }
+
+    private static boolean pinWithTaskset(BitSet cpus) {
+        try {
+            String tid = Files.readSymbolicLink(THREAD_SELF).getFileName().toString(); // <pid>/task/<tid>
+            Process taskset = new ProcessBuilder("taskset", "-p", "-c", toCpuList(cpus), tid)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            return taskset.waitFor(5, TimeUnit.SECONDS) && taskset.exitValue() == 0;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * int sched_setaffinity(pid_t pid, size_t cpusetsize, const cpu_set_t *mask), bound with the Foreign Function
+     * &amp; Memory API of Java 22+ through reflection. Null when not available.
+     */
+    private static final class Native {
+        private static final MethodHandle SCHED_SETAFFINITY;
+        private static final Object JAVA_LONG;
+
+        static {
+            MethodHandle handle = null;
+            Object javaLong = null;
+            try {
+                Class<?> linkerClass = Class.forName("java.lang.foreign.Linker");
+                Class<?> lookupClass = Class.forName("java.lang.foreign.SymbolLookup");
+                Class<?> layoutClass = Class.forName("java.lang.foreign.MemoryLayout");
+                Class<?> valueLayoutClass = Class.forName("java.lang.foreign.ValueLayout");
+                Class<?> descriptorClass = Class.forName("java.lang.foreign.FunctionDescriptor");
+                Class<?> segmentClass = Class.forName("java.lang.foreign.MemorySegment");
+                Class<?> optionClass = Class.forName("java.lang.foreign.Linker$Option");
+                Object linker = linkerClass.getMethod("nativeLinker").invoke(null);
+                Object lookup = linkerClass.getMethod("defaultLookup").invoke(linker);
+                Optional<?> symbol = (Optional<?>) lookupClass.getMethod("find", String.class).invoke(lookup, "sched_setaffinity");
+                if (symbol.isPresent()) {
+                    javaLong = valueLayoutClass.getField("JAVA_LONG").get(null);
+                    Object arguments = Array.newInstance(layoutClass, 3);
+                    Array.set(arguments, 0, valueLayoutClass.getField("JAVA_INT").get(null));
+                    Array.set(arguments, 1, javaLong);
+                    Array.set(arguments, 2, valueLayoutClass.getField("ADDRESS").get(null));
+                    Object descriptor = descriptorClass.getMethod("of", layoutClass, arguments.getClass())
+                            .invoke(null, valueLayoutClass.getField("JAVA_INT").get(null), arguments);
+                    handle = (MethodHandle) linkerClass.getMethod("downcallHandle", segmentClass, descriptorClass,
+                            optionClass.arrayType()).invoke(linker, symbol.get(), descriptor, Array.newInstance(optionClass, 0));
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                log.debug("Foreign Function & Memory API not available on Java {}", Runtime.version().feature());
+            }
+            SCHED_SETAFFINITY = handle;
+            JAVA_LONG = javaLong;
+        }
+
+        static boolean pin(BitSet cpus) {
+            long[] mask = cpus.toLongArray();
+            try {
+                Class<?> arenaClass = Class.forName("java.lang.foreign.Arena");
+                Class<?> segmentClass = Class.forName("java.lang.foreign.MemorySegment");
+                try (AutoCloseable arena = (AutoCloseable) arenaClass.getMethod("ofConfined").invoke(null)) {
+                    Object segment = arenaClass.getMethod("allocate", long.class).invoke(arena, 8L * mask.length);
+                    var set = segmentClass.getMethod("set", Class.forName("java.lang.foreign.ValueLayout$OfLong"),
+                            long.class, long.class);
+                    for (int i = 0; i < mask.length; i++)
+                        set.invoke(segment, JAVA_LONG, 8L * i, mask[i]);
+                    return (int) SCHED_SETAFFINITY.invokeWithArguments(0, 8L * mask.length, segment) == 0;
+                }
+            } catch (Throwable e) {
+                log.debug("sched_setaffinity failed", e);
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package org.javieraguerri;
+
+/**
+ * Outcome of {@link Manager#drain}. Orders left queued, spilled or in flight were not processed; with an
+ * order log they are replayed on the next run. Completed means nothing was left.
+ */
+public record DrainReport(boolean completed,
+                          long elapsedMs,
+                          int ordersProcessed,
+                          int ordersQueued,
+                          int ordersSpilled,
+                          int ordersInFlight,
+                          ManagerStats stats) {
+}
@@ -0,0 +1,33 @@
+package org.javieraguerri;
+
+/**
+ * Outcome of {@link OrderQueue#addOrder}. Only {@link #isQueued() queued} orders reach a consumer;
+ * the others are handed back to the producer.
+ */
+public enum EnqueueResult {
+    ACCEPTED(true),
+    /**
+     * Accepted after dropping the order at the head of the queue.
+     */
+    DROPPED_OLDEST(true),
+    /**
+     * Written to the overflow file, it enters the queue later.
+     */
+    SPILLED(true),
+    REJECTED(false),
+    TIMED_OUT(false),
+    /**
+     * Not queued: the producer is expected to process it.
+     */
+    CALLER_RUNS(false);
+
+    private final boolean queued;
+
+    EnqueueResult(boolean queued) {
+        this.queued = queued;
+    }
+
+    public boolean isQueued() {
+        return queued;
+    }
+}
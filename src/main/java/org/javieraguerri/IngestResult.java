@@ -0,0 +1,8 @@
+package org.javieraguerri;
+
+/**
+ * Answer to a bulk submission. The accepted orders are the first ones of the batch; the rest were rejected
+ * because the queue was full and should be sent again, at most credits of them right away.
+ */
+public record IngestResult(int accepted, int rejected, int credits) {
+}
@@ -0,0 +1,85 @@
+package org.javieraguerri;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets external clients submit orders in bulk over HTTP.
+ * <p>
+ * The body is a sequence of fixed-size big-endian records: the id of the client (int) and a per-client
+ * sequence (long), which identify the order in a namespace apart from that of our producers, so orders are
+ * built straight from the request buffer without any string. The batch is queued in one go and never waits for room: if the queue
+ * fills up, the answer is 429 with the orders that did not fit left out, to be sent again. Every answer carries
+ * the free room of the queue in {@value #CREDITS_HEADER}, so clients can size their next batch. Once the manager
+ * is shutting down nothing is taken anymore, as no consumer would process it, and the answer is 503.
+ */
+@RestController
+@RequestMapping("/orders")
+@Slf4j
+public class IngestionController {
+    public static final int RECORD_BYTES = Integer.BYTES + Long.BYTES;
+    public static final String CREDITS_HEADER = "X-Order-Credits";
+
+    private final Manager manager;
+    private final OrderQueue orderQueue;
+    private final OrderFactory orderFactory;
+    private final int maxBatchSize;
+
+    public IngestionController(Manager manager,
+                               OrderQueue orderQueue,
+                               OrderFactory orderFactory,
+                               @Value("${multithreading.ingest.maxBatchSize:10000}") int maxBatchSize) {
+        this.manager = manager;
+        this.orderQueue = orderQueue;
+        this.orderFactory = orderFactory;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<IngestResult> ingest(@RequestBody byte[] body,
+                                               @RequestParam(defaultValue = "0") int priority,
+                                               @RequestParam(defaultValue = "0") long ttlMs) throws InterruptedException {
+        if (body.length % RECORD_BYTES != 0)
+            return answer(HttpStatus.BAD_REQUEST, 0, 0);
+        int size = body.length / RECORD_BYTES;
+        if (size > maxBatchSize)
+            return answer(HttpStatus.PAYLOAD_TOO_LARGE, 0, size);
+        if (manager.isShutdown() || orderQueue.isShutdown())
+            return answer(HttpStatus.SERVICE_UNAVAILABLE, 0, size);
+        long deadline = ttlMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMs) : 0;
+        ByteBuffer records = ByteBuffer.wrap(body);
+        List<Order> orders = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            orders.add(orderFactory.produceExternalOrder(records.getInt(), records.getLong()).withPriority(priority)
+                    .withDeadline(deadline));
+
+        int accepted = size == 0 ? 0 : orderQueue.offerAll(orders);
+        for (int i = accepted; i < size; i++)
+            orders.get(i).release();
+        if (log.isDebugEnabled())
+            log.debug("Ingested {} of {} orders", accepted, size);
+        if (accepted == 0 && orderQueue.isShutdown()) // Shut down since the check above
+            return answer(HttpStatus.SERVICE_UNAVAILABLE, 0, size);
+        return answer(accepted < size ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.ACCEPTED, accepted, size - accepted);
+    }
+
+    private ResponseEntity<IngestResult> answer(HttpStatus status, int accepted, int rejected) {
+        int credits = Math.max(0, orderQueue.getMaxQueueSize() - orderQueue.currentSize());
+        return ResponseEntity.status(status)
+                .header(CREDITS_HEADER, String.valueOf(credits))
+                .body(new IngestResult(accepted, rejected, credits));
+    }
+}
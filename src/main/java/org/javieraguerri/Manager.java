@@ -2,79 +2,304 @@ package org.javieraguerri;
 
 import lombok.Getter;
 import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
+@Slf4j
 public class Manager {
+    private static final int MAX_DRAIN_BATCH_SIZE = 64;
+
     private final OrderQueue orderQueue;
     private final OrderFactory orderFactory;
     private final OrderProcessor orderProcessor;
+    private final Pipeline pipeline;
+    private final OrderDeduplicator deduplicator;
+    private final WorkerPlacement placement;
     private final List<Producer> producers = new CopyOnWriteArrayList<>();
     private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextProducerId = new AtomicInteger(0);
+    private final AtomicInteger nextConsumerId = new AtomicInteger(0);
+    private final ExecutorService workerExecutor;
     @Getter
-    protected int totalOrdersAdded = 0;
-    @Value("${multithreading.consumer.limit:20}")
-    private int consumerLimit;
-
-    @Value("${multithreading.producer.limit:20}")
-    private int producerLimit;
+    private final int consumerLimit;
+    @Getter
+    private final int producerLimit;
+    @Getter
+    private volatile boolean shutdown = false;
+    private volatile RateLimiter producerRateLimiter;
+    private volatile RateLimiter consumerRateLimiter;
 
     public Manager(OrderQueue orderQueue,
                    OrderFactory orderFactory,
-                   OrderProcessor orderProcessor) {
+                   OrderProcessor orderProcessor,
+                   Optional<Pipeline> pipeline,
+                   Optional<OrderDeduplicator> deduplicator,
+                   Optional<WorkerPlacement> placement,
+                   @Qualifier("workerExecutor") Optional<ExecutorService> workerExecutor,
+                   @Value("${multithreading.consumer.limit:20}") int consumerLimit,
+                   @Value("${multithreading.producer.limit:20}") int producerLimit,
+                   @Value("${multithreading.executor.consumer.limit:10000}") int executorConsumerLimit,
+                   @Value("${multithreading.executor.producer.limit:10000}") int executorProducerLimit,
+                   @Value("${multithreading.producer.rate:0}") double producerRate,
+                   @Value("${multithreading.consumer.rate:0}") double consumerRate) {
         this.orderQueue = orderQueue;
         this.orderFactory = orderFactory;
         this.orderProcessor = orderProcessor;
+        this.pipeline = pipeline.orElse(null);
+        this.deduplicator = deduplicator.orElse(null);
+        this.placement = placement.orElse(null);
+        this.workerExecutor = workerExecutor.orElse(null);
+        // Workers that don't own a platform thread are cheap, so they get their own (higher) limits
+        this.consumerLimit = this.workerExecutor == null ? consumerLimit : executorConsumerLimit;
+        this.producerLimit = this.workerExecutor == null ? producerLimit : executorProducerLimit;
+        if (producerRate > 0)
+            setProducerRate(producerRate);
+        if (consumerRate > 0)
+            setConsumerRate(consumerRate);
     }
 
     public void addProducer(long delayMs) {
-        if (producers.size() < producerLimit) {
-            Producer producer = new Producer(orderQueue, delayMs, orderFactory, producers.size());
-            producers.add(producer);
-        } else
-            System.out.println("Can't create producer - reached limit: " + producerLimit);
+        addProducer(delayMs, 1);
+    }
+
+    /**
+     * Adds a producer that sleeps delayMs after every order (or batch), unless a shared producer rate is set.
+     */
+    public void addProducer(long delayMs, int batchSize) {
+        addProducer(delayMs, batchSize, 0, 0);
     }
 
-    public void removeProducer() {
+    /**
+     * Adds a producer whose orders get the given priority and, if ttlMs is positive, expire ttlMs after creation.
+     */
+    public void addProducer(long delayMs, int batchSize, int priority, long ttlMs) {
+        RateLimiter shared = producerRateLimiter;
+        addProducer(shared != null ? shared : Pacer.fixedDelay(delayMs), batchSize, priority, ttlMs);
+    }
+
+    /**
+     * Adds a producer with its own budget of orders per second.
+     */
+    public void addRateLimitedProducer(double ordersPerSecond, int batchSize) {
+        addProducer(new RateLimiter(ordersPerSecond), batchSize, 0, 0);
+    }
+
+    /**
+     * Sets a budget of orders per second shared by every producer added from now on without its own rate.
+     */
+    public synchronized void setProducerRate(double ordersPerSecond) {
+        if (producerRateLimiter == null)
+            producerRateLimiter = new RateLimiter(ordersPerSecond);
+        else
+            producerRateLimiter.setRate(ordersPerSecond);
+    }
+
+    private void addProducer(Pacer pacer, int batchSize, int priority, long ttlMs) {
+        requireRunning();
+        synchronized (this) {
+            requireRunning(); // A drain may have started while this waited for it
+            if (producers.size() < producerLimit) {
+                int id = nextProducerId.getAndIncrement();
+                Producer producer = new Producer(orderQueue, pacer, batchSize, priority, ttlMs, orderFactory, orderProcessor,
+                        id, executorFor(id));
+                producers.add(producer);
+            } else
+                log.warn("Can't create producer - reached limit: {}", producerLimit);
+        }
+    }
+
+    public synchronized void removeProducer() {
         if (!producers.isEmpty())
-            totalOrdersAdded += producers.remove(producers.size() - 1).kill();
+            producers.remove(producers.size() - 1).kill();
     }
 
     public void addConsumer(long delayMs) {
+        addConsumer(delayMs, 1);
+    }
+
+    /**
+     * Adds a consumer that sleeps delayMs after every order (or batch), unless a shared consumer rate is set.
+     */
+    public void addConsumer(long delayMs, int batchSize) {
+        RateLimiter shared = consumerRateLimiter;
+        addConsumer(shared != null ? shared : Pacer.fixedDelay(delayMs), batchSize);
+    }
+
+    /**
+     * Adds a consumer with its own budget of orders per second.
+     */
+    public void addRateLimitedConsumer(double ordersPerSecond, int batchSize) {
+        addConsumer(new RateLimiter(ordersPerSecond), batchSize);
+    }
+
+    /**
+     * Sets a budget of orders per second shared by every consumer added from now on without its own rate.
+     */
+    public synchronized void setConsumerRate(double ordersPerSecond) {
+        if (consumerRateLimiter == null)
+            consumerRateLimiter = new RateLimiter(ordersPerSecond);
+        else
+            consumerRateLimiter.setRate(ordersPerSecond);
+    }
+
+    /**
+     * Throws IllegalStateException with a pipeline, whose stages take the orders instead: a consumer would
+     * process them without the stages after the first.
+     */
+    private void addConsumer(Pacer pacer, int batchSize) {
+        if (pipeline != null)
+            throw new IllegalStateException("Consumers would skip the pipeline stages, add stage workers instead");
+        requireRunning();
+        synchronized (this) {
+            requireRunning(); // A drain may have started while this waited for it
+            startConsumer(pacer, batchSize);
+        }
+    }
+
+    /**
+     * Called holding the manager's lock, also by a drain for its extra consumers.
+     */
+    private void startConsumer(Pacer pacer, int batchSize) {
         if (consumers.size() < consumerLimit) {
-            Consumer consumer = new Consumer(orderQueue, delayMs, orderProcessor, consumers.size());
+            int id = nextConsumerId.getAndIncrement();
+            Consumer consumer = new Consumer(orderQueue, pacer, batchSize, orderProcessor, deduplicator, id,
+                    executorFor(id), this::consumerFailed);
             consumers.add(consumer);
         } else
-            System.out.println("Can't create consumer - reached limit: " + consumerLimit);
+            log.warn("Can't create consumer - reached limit: {}", consumerLimit);
+    }
+
+    /**
+     * Throws IllegalStateException once a drain has started, right away rather than once the drain releases the
+     * manager: the workers would only be stopped again.
+     */
+    private void requireRunning() {
+        if (shutdown)
+            throw new IllegalStateException("The manager is draining or shut down, no workers can be added");
     }
 
-    public void removeConsumer() {
-        if (!consumers.isEmpty()) {
-            consumers.remove(consumers.size() - 1).kill();
+    /**
+     * With placement on, producer n and consumer n run on the same CPU set.
+     */
+    private ExecutorService executorFor(int workerId) {
+        return placement == null ? workerExecutor : placement.executorFor(workerId);
+    }
+
+    /**
+     * Forgets a consumer that stopped because processing failed, so it is no longer counted (e.g. by the
+     * autoscaler). Called by the consumer without the manager's lock, which a drain joining it may hold.
+     */
+    private void consumerFailed(Consumer consumer) {
+        if (consumers.remove(consumer))
+            log.warn("{} failed and was removed", consumer.getName());
+    }
+
+    /**
+     * Retires the newest consumer once it has finished the orders in hand.
+     */
+    public synchronized void removeConsumer() {
+        Consumer[] current = consumers.toArray(new Consumer[0]);
+        Consumer newest = current.length == 0 ? null : current[current.length - 1];
+        if (newest != null && consumers.remove(newest)) { // Unless it failed meanwhile
+            newest.retire();
+            newest.join();
         }
     }
 
-    @SneakyThrows
+    /**
+     * Adds workers to a stage of the pipeline. Throws IllegalStateException without a pipeline.
+     */
+    public void addStageWorkers(String stage, int count) {
+        requirePipeline().addWorkers(stage, count);
+    }
+
+    /**
+     * Retires the newest worker of a stage of the pipeline once it has passed on the orders in hand.
+     */
+    public void removeStageWorker(String stage) {
+        requirePipeline().removeWorker(stage);
+    }
+
+    /**
+     * Stats of every pipeline stage, in order; empty without a pipeline.
+     */
+    public List<StageStats> getStageStats() {
+        return pipeline == null ? List.of() : pipeline.getStats();
+    }
+
+    private Pipeline requirePipeline() {
+        if (pipeline == null)
+            throw new IllegalStateException("No pipeline configured, see multithreading.pipeline.stages");
+        return pipeline;
+    }
+
+    /**
+     * Stops the producers and waits for the consumers to empty the queue, for as long as it takes.
+     */
     public void shutdown() {
-        System.out.println("Initiating shutdown");
-        orderQueue.setShutdown(true);
-        producers.forEach(p -> {
-            p.kill();
-            producers.remove(p);
-        });
-        totalOrdersAdded = orderQueue.getTotalOrdersAdded();
-        synchronized (orderQueue.getLock()) {
-            orderQueue.getLock().notifyAll(); // Wake up asleep consumers
+        drain(0, 0);
+    }
+
+    /**
+     * Stops intake and lets the consumers empty the queue for up to timeoutMs (0 for no limit), helped by up to
+     * extraConsumers more (within the consumer limit) taking batches without any delay. Producers and consumers
+     * can no longer be added from the moment it starts.
+     * Consumers still running at the deadline are interrupted, and what they did not finish is reported in flight.
+     * With a pipeline, its stages are drained in turn after the consumers, within the same time, and no extra
+     * consumers are added.
+     */
+    @SneakyThrows
+    public synchronized DrainReport drain(long timeoutMs, int extraConsumers) {
+        long startedAt = System.nanoTime();
+        long deadline = timeoutMs > 0 ? startedAt + TimeUnit.MILLISECONDS.toNanos(timeoutMs) : Long.MAX_VALUE;
+        int processedBefore = getTotalOrdersProcessed();
+        log.info("Initiating shutdown");
+        shutdown = true;
+        for (Producer producer : producers)
+            producer.kill();
+        producers.clear();
+        // Batches small enough that the backlog is shared by every consumer rather than grabbed by the first
+        int batchSize = Math.max(1, Math.min(MAX_DRAIN_BATCH_SIZE,
+                getOrderQueueSize() / (consumers.size() + extraConsumers + 1)));
+        for (int i = 0; pipeline == null && i < extraConsumers && consumers.size() < consumerLimit; i++)
+            startConsumer(Pacer.unpaced(), batchSize);
+        // Only once no producer can add more orders, so consumers drain everything; spilled orders need consumers
+        orderQueue.shutdown(consumers.isEmpty() && pipeline == null ? 0 : remainingNanos(deadline), TimeUnit.NANOSECONDS);
+        int interrupted = 0;
+        for (Consumer consumer : consumers) {
+            if (!consumer.join(remainingNanos(deadline), TimeUnit.NANOSECONDS)) {
+                consumer.kill();
+                consumer.join();
+                interrupted++;
+            }
         }
-        consumers.forEach(c -> {
-            c.shutdown();
-            consumers.remove(c);
-        });
-        System.out.println("System shutdown complete");
+        consumers.clear();
+        if (pipeline != null)
+            pipeline.drain(remainingNanos(deadline), TimeUnit.NANOSECONDS);
+
+        int queued = getOrderQueueSize() + (pipeline == null ? 0 : pipeline.getQueuedOrders());
+        int inFlight = orderQueue.getInFlightOrders() + (pipeline == null ? 0 : pipeline.getInFlightOrders());
+        DrainReport report = new DrainReport(queued == 0 && orderQueue.getSpilledOrders() == 0 && inFlight == 0,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt),
+                getTotalOrdersProcessed() - processedBefore, queued,
+                orderQueue.getSpilledOrders(), inFlight, getStats());
+        if (interrupted > 0 || !report.completed())
+            log.warn("Shutdown deadline passed, {} consumers interrupted: {}", interrupted, report);
+        else
+            log.info("System shutdown complete");
+        return report;
     }
 
     public int getActiveProducers() {
@@ -89,8 +314,45 @@ public class Manager {
         return orderQueue.currentSize();
     }
 
+    public int getTotalOrdersAdded() {
+        return orderQueue.getTotalOrdersAdded();
+    }
+
     public int getTotalOrdersProcessed() {
         return orderProcessor.getTotalOrdersProcessed();
     }
 
+    public int getTotalOrdersExpired() {
+        return orderQueue.getTotalOrdersExpired() + (pipeline == null ? 0 : pipeline.getTotalOrdersExpired());
+    }
+
+    /**
+     * Orders dropped as duplicates, 0 unless deduplication is on.
+     */
+    public int getTotalOrdersDuplicated() {
+        return deduplicator == null ? 0 : (int) deduplicator.getHits();
+    }
+
+    public int getTotalOrders(EnqueueResult result) {
+        return orderQueue.getTotalOrders(result);
+    }
+
+    private static long remainingNanos(long deadline) {
+        return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, deadline - System.nanoTime());
+    }
+
+    public ManagerStats getStats() {
+        OrderQueueMetrics metrics = orderQueue.getMetrics();
+        Map<EnqueueResult, Integer> overflows = new EnumMap<>(EnqueueResult.class);
+        for (EnqueueResult result : EnqueueResult.values())
+            if (result != EnqueueResult.ACCEPTED)
+                overflows.put(result, getTotalOrders(result));
+        return new ManagerStats(getActiveProducers(), getActiveConsumers(), getOrderQueueSize(),
+                getTotalOrdersAdded(), getTotalOrdersProcessed(), getTotalOrdersExpired(), getTotalOrdersDuplicated(),
+                deduplicator == null ? 0 : deduplicator.getHitRate(), overflows,
+                metrics.getEnqueueRate(), metrics.getDequeueRate(),
+                metrics.getProducerBlockedRate(), metrics.getConsumerBlockedRate(),
+                metrics.getLatencyPercentile(0.99, TimeUnit.MILLISECONDS), getStageStats());
+    }
+
 }
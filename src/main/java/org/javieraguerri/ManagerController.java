@@ -0,0 +1,152 @@
+package org.javieraguerri;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * HTTP control plane to scale producers and consumers under live load.
+ * Scaling commands are handed to a single control thread and answered asynchronously: they are applied
+ * one at a time without any lock, never touch the queue's synchronization, and a slow removal
+ * (waiting for a producer to stop) does not hold a request thread.
+ */
+@RestController
+@RequestMapping("/manager")
+@Slf4j
+public class ManagerController {
+    private final Manager manager;
+    private final ExecutorService controlExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "Manager-control"));
+    private final ExecutorService drainExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "Manager-drain"));
+    private final long drainTimeoutMs;
+
+    public ManagerController(Manager manager,
+                             @Value("${multithreading.drain.timeoutMs:30000}") long drainTimeoutMs) {
+        this.manager = manager;
+        this.drainTimeoutMs = drainTimeoutMs;
+    }
+
+    @GetMapping("/stats")
+    public ManagerStats stats() {
+        return manager.getStats();
+    }
+
+    @PostMapping("/producers")
+    public CompletableFuture<ManagerStats> addProducers(@RequestParam(defaultValue = "1") int count,
+                                                        @RequestParam(defaultValue = "100") long delayMs,
+                                                        @RequestParam(defaultValue = "1") int batchSize,
+                                                        @RequestParam(defaultValue = "0") double rate,
+                                                        @RequestParam(defaultValue = "0") int priority,
+                                                        @RequestParam(defaultValue = "0") long ttlMs) {
+        return control(() -> {
+            for (int i = 0; i < count; i++) {
+                if (rate > 0)
+                    manager.addRateLimitedProducer(rate, batchSize);
+                else
+                    manager.addProducer(delayMs, batchSize, priority, ttlMs);
+            }
+        });
+    }
+
+    @DeleteMapping("/producers")
+    public CompletableFuture<ManagerStats> removeProducers(@RequestParam(defaultValue = "1") int count) {
+        return control(() -> {
+            for (int i = 0; i < count; i++)
+                manager.removeProducer();
+        });
+    }
+
+    @PostMapping("/consumers")
+    public CompletableFuture<ManagerStats> addConsumers(@RequestParam(defaultValue = "1") int count,
+                                                        @RequestParam(defaultValue = "100") long delayMs,
+                                                        @RequestParam(defaultValue = "1") int batchSize,
+                                                        @RequestParam(defaultValue = "0") double rate) {
+        return control(() -> {
+            for (int i = 0; i < count; i++) {
+                if (rate > 0)
+                    manager.addRateLimitedConsumer(rate, batchSize);
+                else
+                    manager.addConsumer(delayMs, batchSize);
+            }
+        });
+    }
+
+    @DeleteMapping("/consumers")
+    public CompletableFuture<ManagerStats> removeConsumers(@RequestParam(defaultValue = "1") int count) {
+        return control(() -> {
+            for (int i = 0; i < count; i++)
+                manager.removeConsumer();
+        });
+    }
+
+    @GetMapping("/pipeline")
+    public List<StageStats> pipeline() {
+        return manager.getStageStats();
+    }
+
+    /**
+     * Scales a single stage of the pipeline, typically the one whose workers are never idle.
+     */
+    @PostMapping("/pipeline/{stage}/workers")
+    public CompletableFuture<ManagerStats> addStageWorkers(@PathVariable String stage,
+                                                           @RequestParam(defaultValue = "1") int count) {
+        return control(() -> manager.addStageWorkers(stage, count));
+    }
+
+    @DeleteMapping("/pipeline/{stage}/workers")
+    public CompletableFuture<ManagerStats> removeStageWorkers(@PathVariable String stage,
+                                                              @RequestParam(defaultValue = "1") int count) {
+        return control(() -> {
+            for (int i = 0; i < count; i++)
+                manager.removeStageWorker(stage);
+        });
+    }
+
+    /**
+     * Stops the producers and lets the consumers empty the queue before they exit, for up to timeoutMs
+     * (multithreading.drain.timeoutMs by default, 0 for no limit) and with up to extraConsumers more to speed it up.
+     * It runs on a thread of its own, so that scaling commands sent meanwhile are refused right away.
+     */
+    @PostMapping("/drain")
+    public CompletableFuture<DrainReport> drain(@RequestParam(required = false) Long timeoutMs,
+                                               @RequestParam(defaultValue = "0") int extraConsumers) {
+        long timeout = timeoutMs != null ? timeoutMs : drainTimeoutMs;
+        return CompletableFuture.supplyAsync(() -> manager.drain(timeout, extraConsumers), drainExecutor);
+    }
+
+    /**
+     * Commands that do not apply to the manager as it is, such as adding consumers in front of a pipeline
+     * or adding workers during a drain.
+     */
+    @ExceptionHandler(IllegalStateException.class)
+    public ResponseEntity<String> conflict(IllegalStateException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+    }
+
+    @PreDestroy
+    public void close() {
+        controlExecutor.shutdownNow();
+        drainExecutor.shutdownNow();
+    }
+
+    private CompletableFuture<ManagerStats> control(Runnable command) {
+        return CompletableFuture.supplyAsync(() -> {
+            command.run();
+            return manager.getStats();
+        }, controlExecutor);
+    }
+}
@@ -0,0 +1,28 @@
+package org.javieraguerri;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point-in-time view of the system, as served by the control plane.
+ * Duplicates are orders dropped because they were already seen, out of all the orders checked (duplicateRate).
+ * Overflows count the orders that found the queue full, by what happened to them.
+ * Rates are per second, blocked rates are seconds blocked per second summed over all workers.
+ * Stages are those of the pipeline, if any, in order.
+ */
+public record ManagerStats(int activeProducers,
+                           int activeConsumers,
+                           int queueSize,
+                           int totalOrdersAdded,
+                           int totalOrdersProcessed,
+                           int totalOrdersExpired,
+                           int totalOrdersDuplicated,
+                           double duplicateRate,
+                           Map<EnqueueResult, Integer> overflows,
+                           double enqueueRate,
+                           double dequeueRate,
+                           double producerBlockedRate,
+                           double consumerBlockedRate,
+                           double latencyP99Ms,
+                           List<StageStats> stages) {
+}
@@ -0,0 +1,246 @@
+package org.javieraguerri;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reference implementation: an {@link ArrayDeque} guarded by a single lock.
+ * Producers and consumers wait on separate conditions, so each operation only wakes up the other side.
+ * A {@link ReentrantLock} is used instead of a monitor so that waiting virtual threads release their carrier.
+ */
+@Slf4j
+public class MonitorQueueEngine implements OrderQueueEngine {
+    private final Queue<Order> queue = new ArrayDeque<>();
+    private final int maxQueueSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition notEmpty = lock.newCondition();
+    private final OrderQueueMetrics metrics;
+    private boolean shutdown = false;
+
+    public MonitorQueueEngine(int maxQueueSize, OrderQueueMetrics metrics) {
+        this.maxQueueSize = maxQueueSize;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void put(Order order) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            awaitNotFull();
+            order.markEnqueued();
+            queue.add(order);
+            if (log.isDebugEnabled())
+                log.debug("Produced: {} (Queue size: {})", order, queue.size());
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Order take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (!awaitNotEmpty())
+                return null;
+            Order order = queue.poll();
+            if (log.isDebugEnabled())
+                log.debug("Consumed: {} (Queue size: {})", order, queue.size());
+            notFull.signal();
+            return order;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Order order) {
+        lock.lock();
+        try {
+            if (queue.size() == maxQueueSize)
+                return false;
+            order.markEnqueued();
+            queue.add(order);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Order order, long timeout, TimeUnit unit) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (!awaitNotFull(unit.toNanos(timeout)))
+                return false;
+            order.markEnqueued();
+            queue.add(order);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Order poll() {
+        lock.lock();
+        try {
+            Order order = queue.poll();
+            if (order != null)
+                notFull.signal();
+            return order;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int putBatch(List<Order> orders, int fromIndex) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            awaitNotFull();
+            int count = Math.min(orders.size() - fromIndex, maxQueueSize - queue.size());
+            for (int i = fromIndex; i < fromIndex + count; i++) {
+                Order order = orders.get(i);
+                order.markEnqueued();
+                queue.add(order);
+            }
+            if (log.isDebugEnabled())
+                log.debug("Produced {} orders (Queue size: {})", count, queue.size());
+            signal(notEmpty, count);
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int offerBatch(List<Order> orders, int fromIndex) {
+        lock.lock();
+        try {
+            int count = Math.min(orders.size() - fromIndex, maxQueueSize - queue.size());
+            for (int i = fromIndex; i < fromIndex + count; i++) {
+                Order order = orders.get(i);
+                order.markEnqueued();
+                queue.add(order);
+            }
+            signal(notEmpty, count);
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<Order> target, int maxOrders) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (!awaitNotEmpty())
+                return 0;
+            int count = 0;
+            while (count < maxOrders && !queue.isEmpty()) {
+                target.add(queue.poll());
+                count++;
+            }
+            if (log.isDebugEnabled())
+                log.debug("Consumed {} orders (Queue size: {})", count, queue.size());
+            signal(notFull, count);
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            notEmpty.signalAll(); // Wake up asleep consumers
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitNotFull() throws InterruptedException {
+        if (queue.size() < maxQueueSize)
+            return;
+        long waitStartedAt = metrics.producerWaitStarted();
+        try {
+            while (queue.size() == maxQueueSize) {
+                log.trace("Found the queue full and goes to sleep");
+                notFull.await();
+                log.trace("Woke up");
+            }
+        } finally {
+            metrics.producerWaitEnded(waitStartedAt);
+        }
+    }
+
+    /**
+     * Returns false if the queue is still full after the given time.
+     */
+    private boolean awaitNotFull(long nanos) throws InterruptedException {
+        if (queue.size() < maxQueueSize)
+            return true;
+        long waitStartedAt = metrics.producerWaitStarted();
+        try {
+            while (queue.size() == maxQueueSize) {
+                if (nanos <= 0)
+                    return false;
+                log.trace("Found the queue full and goes to sleep");
+                nanos = notFull.awaitNanos(nanos);
+                log.trace("Woke up");
+            }
+            return true;
+        } finally {
+            metrics.producerWaitEnded(waitStartedAt);
+        }
+    }
+
+    /**
+     * Returns false if the queue is empty and shut down.
+     */
+    private boolean awaitNotEmpty() throws InterruptedException {
+        if (!queue.isEmpty())
+            return true;
+        long waitStartedAt = metrics.consumerWaitStarted();
+        try {
+            while (queue.isEmpty()) {
+                if (shutdown)
+                    return false;
+                log.trace("Found the queue empty and goes to sleep");
+                notEmpty.await();
+                log.trace("Woke up");
+            }
+            return true;
+        } finally {
+            metrics.consumerWaitEnded(waitStartedAt);
+        }
+    }
+
+    private static void signal(Condition condition, int times) {
+        for (int i = 0; i < times; i++)
+            condition.signal();
+    }
+}
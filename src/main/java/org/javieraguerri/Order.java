@@ -1,14 +1,211 @@
 package org.javieraguerri;
 
+import lombok.Getter;
+
+/**
+ * An order is identified by the producer that created it and a per-producer sequence.
+ * The textual id is only built when somebody asks for it (logging, the order log), so producing,
+ * queueing and processing an order needs no string at all.
+ * <p>
+ * Producer ids restart at 0 on every run, so the orders of a producer also carry the run of the
+ * {@link OrderFactory} that created them: ids are &lt;run&gt;.&lt;producer&gt;__&lt;sequence&gt;, with the run in hex,
+ * and orders replayed from a previous run never take the id of a new one. Orders sent by external clients
+ * identify themselves, whatever the run: their ids are c&lt;client&gt;__&lt;sequence&gt;, and their keys have the
+ * top bit set while those of producers have it clear, so a client and a producer with the same id never collide.
+ */
 public class Order {
-    private final String id;
+    private static final long EXTERNAL_KEY = Long.MIN_VALUE;
+
+    @Getter
+    private int producerId;
+    @Getter
+    private long sequence;
+    /**
+     * Run of the factory that created the order, 0 when built directly (e.g. in tests).
+     */
+    @Getter
+    private long run;
+    /**
+     * Whether producerId is the id of an external client rather than of one of our producers.
+     */
+    @Getter
+    private boolean external;
+    private String id;
+    /**
+     * {@link System#nanoTime()} at each step, 0 until the order gets there. Each is written by the one thread
+     * handling the order at that step, and published to the next one by the queue.
+     */
+    @Getter
+    private long createdAtNanos;
+    @Getter
+    private long enqueuedAtNanos;
+    @Getter
+    private long dequeuedAtNanos;
+    @Getter
+    private long processedAtNanos;
+    /**
+     * Higher is more urgent. Only the priority queue engine looks at it.
+     */
+    @Getter
+    private int priority;
+    /**
+     * {@link System#nanoTime()} after which the order is dropped instead of processed, 0 for no deadline.
+     */
+    @Getter
+    private long deadlineNanos;
+    /**
+     * Position in the {@link OrderLog}, 0 when the queue is not persistent.
+     */
+    @Getter
+    long logSequence;
+    /**
+     * Whether the order was put back in the queue after the consumer it was delivered to failed.
+     */
+    @Getter
+    private boolean redelivered;
+    private final OrderPool pool;
 
     public Order(String id) {
         this.id = id;
+        this.pool = null;
+        this.createdAtNanos = System.nanoTime();
+    }
+
+    public Order(int producerId, long sequence) {
+        this((OrderPool) null);
+        assign(producerId, sequence);
+    }
+
+    Order(OrderPool pool) {
+        this.pool = pool;
+    }
+
+    public String getId() {
+        if (id == null) {
+            if (external)
+                id = "c" + producerId + "__" + sequence;
+            else if (run != 0)
+                id = Long.toHexString(run) + "." + producerId + "__" + sequence;
+            else
+                id = producerId + "__" + sequence;
+        }
+        return id;
+    }
+
+    public Order withPriority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
+    public Order withDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+        return this;
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0;
+    }
+
+    /**
+     * Hands the order back to the factory it came from once nobody uses it anymore. No-op unless recycling is on.
+     */
+    public void release() {
+        if (pool != null)
+            pool.release(this);
+    }
+
+    /**
+     * Resets a new or recycled order.
+     */
+    void assign(int producerId, long sequence) {
+        assign(0, false, producerId, sequence);
+    }
+
+    void assign(long run, boolean external, int producerId, long sequence) {
+        this.run = run;
+        this.external = external;
+        this.producerId = producerId;
+        this.sequence = sequence;
+        this.id = null;
+        this.createdAtNanos = System.nanoTime();
+        this.enqueuedAtNanos = 0;
+        this.dequeuedAtNanos = 0;
+        this.processedAtNanos = 0;
+        this.priority = 0;
+        this.deadlineNanos = 0;
+        this.logSequence = 0;
+        this.redelivered = false;
+    }
+
+    /**
+     * Called by the queue engines right before the order becomes visible to consumers.
+     */
+    void markEnqueued() {
+        enqueuedAtNanos = System.nanoTime();
+    }
+
+    void markDequeued(long nanos) {
+        dequeuedAtNanos = nanos;
+    }
+
+    void markProcessed(long nanos) {
+        processedAtNanos = nanos;
+    }
+
+    void markRedelivered() {
+        redelivered = true;
+    }
+
+    /**
+     * 64-bit key of the id, the same for an order rebuilt from its textual id (e.g. by the order log).
+     * It is a hash of the run, producer and sequence, or of the text for ids of other formats, whose top bit
+     * tells external orders apart.
+     */
+    long idKey() {
+        if (id == null)
+            return idKey(run, external, producerId, sequence);
+        int separator = id.indexOf("__");
+        if (separator > 0) {
+            try {
+                boolean external = id.charAt(0) == 'c';
+                int dot = external ? -1 : id.indexOf('.');
+                boolean salted = dot > 0 && dot < separator;
+                return idKey(salted ? Long.parseUnsignedLong(id, 0, dot, 16) : 0, external,
+                        Integer.parseInt(id, external ? 1 : salted ? dot + 1 : 0, separator, 10),
+                        Long.parseLong(id, separator + 2, id.length(), 10));
+            } catch (NumberFormatException e) {
+                // Not one of ours, falls back to the hash
+            }
+        }
+        long hash = 1125899906842597L;
+        for (int i = 0; i < id.length(); i++)
+            hash = 31 * hash + id.charAt(i);
+        return mix(hash) & ~EXTERNAL_KEY;
+    }
+
+    /**
+     * The run is mixed in first, so that each run spreads its keys differently and (run 0 aside) keys of
+     * different runs only meet by chance.
+     */
+    private static long idKey(long run, boolean external, int producerId, long sequence) {
+        long key = mix(mix(run) ^ ((long) producerId << 48 ^ sequence));
+        return external ? key | EXTERNAL_KEY : key & ~EXTERNAL_KEY;
+    }
+
+    /**
+     * Spreads the bits of a key (the finalizer of MurmurHash3). It is a bijection, so distinct keys stay distinct.
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
     }
 
     @Override
     public String toString() {
-        return "OrderId = " + id + "}";
+        return "OrderId = " + getId() + "}";
     }
 }
@@ -0,0 +1,189 @@
+package org.javieraguerri;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Remembers the ids of the orders seen in the last windowMs, up to maxEntries, so that an order delivered twice
+ * (e.g. retried by a source) is processed once.
+ * <p>
+ * Ids are kept as 64-bit keys in independently locked stripes, chosen by the high bits of the key below the
+ * namespace bit (see {@link Order#idKey()}), so lookups from different workers rarely meet on a lock. Each stripe
+ * holds its keys in a ring, oldest first, with an open-addressing index over it: about 32 bytes per entry and no
+ * allocation per order. The oldest key is
+ * forgotten once it is older than the window or the stripe is full; as an id is only ever looked up again
+ * when it is a duplicate, oldest first is least recently used first. Stripes get an even share of maxEntries,
+ * so some fill up before the total is reached: leave some headroom over the ids expected within the window.
+ * <p>
+ * The cache is in memory only: after a restart, orders replayed from the order log are not recognized.
+ */
+@Component
+@ConditionalOnProperty(name = "multithreading.dedup.enabled", havingValue = "true")
+@Slf4j
+public class OrderDeduplicator {
+    private static final long EMPTY = 0;
+
+    private final Stripe[] stripes;
+    private final int stripeShift;
+    private final long windowNanos;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    @Getter
+    private final int maxEntries;
+
+    public OrderDeduplicator(@Value("${multithreading.dedup.maxEntries:100000}") int maxEntries,
+                             @Value("${multithreading.dedup.windowMs:60000}") long windowMs,
+                             @Value("${multithreading.dedup.stripes:0}") int stripes,
+                             MeterRegistry registry) {
+        if (maxEntries < 1)
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        int count = Integer.highestOneBit(Math.max(1, Math.min(maxEntries,
+                stripes > 0 ? stripes : 4 * Runtime.getRuntime().availableProcessors())));
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++)
+            this.stripes[i] = new Stripe((maxEntries + count - 1) / count);
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(count);
+        this.windowNanos = windowMs > 0 ? TimeUnit.MILLISECONDS.toNanos(windowMs) : Long.MAX_VALUE;
+        this.maxEntries = maxEntries;
+        FunctionCounter.builder("orders.dedup.lookups", lookups, LongAdder::sum)
+                .description("Orders checked for duplicates")
+                .register(registry);
+        FunctionCounter.builder("orders.dedup.hits", hits, LongAdder::sum)
+                .description("Orders dropped as duplicates")
+                .register(registry);
+        Gauge.builder("orders.dedup.size", this, OrderDeduplicator::size)
+                .description("Order ids remembered")
+                .register(registry);
+        Gauge.builder("orders.dedup.memory", this, OrderDeduplicator::getMemoryBytes)
+                .description("Memory taken by the remembered ids")
+                .baseUnit("bytes")
+                .register(registry);
+        log.info("Deduplicating over {} ids in {} stripes, {} KB", maxEntries, count, getMemoryBytes() / 1024);
+    }
+
+    /**
+     * Returns true if the order was already seen within the window; otherwise remembers it and returns false.
+     */
+    public boolean isDuplicate(Order order) {
+        long key = order.idKey();
+        if (key == EMPTY)
+            key = Long.MIN_VALUE; // EMPTY marks free index slots
+        lookups.increment();
+        int stripe = stripeShift == 64 ? 0 : (int) ((key << 1) >>> stripeShift); // The top bit is the namespace
+        if (!stripes[stripe].add(key, System.nanoTime(), windowNanos))
+            return false;
+        hits.increment();
+        if (log.isDebugEnabled())
+            log.debug("Dropped duplicate {}", order);
+        return true;
+    }
+
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public double getHitRate() {
+        long total = lookups.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes)
+            size += stripe.size;
+        return size;
+    }
+
+    /**
+     * Bytes taken by the arrays of all stripes, allocated up front for maxEntries.
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes)
+            bytes += 8L * (stripe.keys.length + stripe.seenAt.length + stripe.index.length);
+        return bytes;
+    }
+
+    private static class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long[] keys;
+        private final long[] seenAt;
+        private final long[] index;
+        private final int mask;
+        private int oldest;
+        private volatile int size;
+
+        Stripe(int capacity) {
+            this.keys = new long[capacity];
+            this.seenAt = new long[capacity];
+            this.index = new long[Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2]; // At most half full
+            this.mask = index.length - 1;
+        }
+
+        /**
+         * Returns true if the key is already there, and adds it otherwise.
+         */
+        boolean add(long key, long now, long windowNanos) {
+            lock.lock();
+            try {
+                while (size > 0 && now - seenAt[oldest] > windowNanos)
+                    removeOldest();
+                int slot = (int) key & mask;
+                while (index[slot] != EMPTY) {
+                    if (index[slot] == key)
+                        return true;
+                    slot = (slot + 1) & mask;
+                }
+                if (size == keys.length) {
+                    removeOldest();
+                    slot = (int) key & mask; // Removing may have shifted the probe sequence
+                    while (index[slot] != EMPTY)
+                        slot = (slot + 1) & mask;
+                }
+                index[slot] = key;
+                int newest = (oldest + size) % keys.length;
+                keys[newest] = key;
+                seenAt[newest] = now;
+                size++;
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void removeOldest() {
+            long key = keys[oldest];
+            oldest = (oldest + 1) % keys.length;
+            size--;
+            int slot = (int) key & mask;
+            while (index[slot] != key)
+                slot = (slot + 1) & mask;
+            // Backward-shift deletion: moves later keys of the probe run into the hole so lookups still find them
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (index[next] != EMPTY) {
+                int home = (int) index[next] & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    index[hole] = index[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            index[hole] = EMPTY;
+        }
+    }
+}
@@ -1,10 +1,61 @@
 package org.javieraguerri;
 
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 @Component
 public class OrderFactory {
+    private static final AtomicLong LAST_RUN = new AtomicLong();
+
+    private final OrderPool pool;
+    /**
+     * Salt of the ids of this factory's orders (see {@link Order}): the epoch millis it was created at, made
+     * unique among the factories of this JVM.
+     */
+    @Getter
+    private final long run;
+
+    public OrderFactory() {
+        this(false, 0);
+    }
+
+    /**
+     * With recycling on, processed orders are returned through {@link Order#release()} and handed out again,
+     * so a steady flow of orders allocates nothing. poolSize should cover every order in flight.
+     */
+    @Autowired
+    public OrderFactory(@Value("${multithreading.order.recycle:false}") boolean recycle,
+                        @Value("${multithreading.order.poolSize:1024}") int poolSize) {
+        this.pool = recycle ? new OrderPool(poolSize) : null;
+        long now = System.currentTimeMillis();
+        this.run = LAST_RUN.updateAndGet(last -> Math.max(last + 1, now));
+    }
+
     public Order produceOrder(String id) {
         return new Order(id);
     }
+
+    public Order produceOrder(int producerId, long sequence) {
+        Order order = newOrder();
+        order.assign(run, false, producerId, sequence);
+        return order;
+    }
+
+    /**
+     * An order identified by an external client, in a namespace of its own (see {@link Order}).
+     */
+    public Order produceExternalOrder(int clientId, long sequence) {
+        Order order = newOrder();
+        order.assign(0, true, clientId, sequence);
+        return order;
+    }
+
+    private Order newOrder() {
+        Order order = pool == null ? null : pool.acquire();
+        return order != null ? order : new Order(pool);
+    }
 }
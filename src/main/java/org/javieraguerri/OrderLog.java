@@ -0,0 +1,528 @@
+package org.javieraguerri;
+
+import jakarta.annotation.PreDestroy;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log that keeps queued orders across restarts.
+ * <p>
+ * Every order is appended to a memory-mapped segment file before it enters the queue, and acknowledged once it
+ * has been processed. Consumers finish out of order, so the committed read offset is the highest sequence below
+ * which every order has been acknowledged. It is saved to a checkpoint file together with the orders acknowledged
+ * beyond it, and segments wholly below it are deleted. On startup every record not acknowledged by the checkpoint
+ * is replayed, so delivery is at-least-once: orders acknowledged after the last checkpoint are processed again.
+ * <p>
+ * Appending only copies bytes into the mapping. A background flusher forces everything written so far in one go
+ * (group commit) and producers wait for the flush that covers their record, so a single fsync serves every
+ * producer that appended in the meantime. A failed flush fails the producers waiting for it and every append after
+ * it: a failed fsync may have dropped the pages it was forcing, so a retry could not be trusted.
+ * <p>
+ * Record layout: length (int), CRC32C of sequence and payload (int), sequence (long), order id (UTF-8).
+ * The first torn or corrupt record marks the end of the log.
+ */
+@Component
+@ConditionalOnExpression("!'${multithreading.queue.wal.dir:}'.isEmpty()")
+@Slf4j
+public class OrderLog {
+    private static final String SEGMENT_PREFIX = "orders-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final int COMPACT_ACKS = 4096;
+
+    private final Path dir;
+    private final int segmentSize;
+    private final long flushIntervalNanos;
+    private final Path checkpointFile;
+    private final Thread flusher;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final List<Segment> segments = new ArrayList<>(); // Oldest first, the last one takes the appends
+    private final List<Segment> recovered;
+    private boolean replaying; // Until replay is done the recovered segments are kept, even once committed
+    private long nextSequence;
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition flushNeeded = flushLock.newCondition();
+    private final Condition flushDone = flushLock.newCondition();
+    private long requestedSequence;
+    private volatile long durableSequence;
+    private volatile boolean closed = false;
+    private volatile Exception failure; // The flush that failed, after which the log takes no more orders
+
+    private final Object ackLock = new Object();
+    private BitSet acked = new BitSet();
+    private long ackedBase; // Sequence of bit 0 in acked
+    private long ackVersion;
+    private volatile long committedSequence;
+    private long checkpointedVersion;
+    private volatile long checkpointedSequence; // Committed sequence of the checkpoint on disk
+
+    private final long replayFrom;
+    private final long replayTo;
+    private final BitSet replaySkipped; // Acknowledged beyond the committed sequence, relative to replaySkippedBase
+    private final long replaySkippedBase;
+
+    public OrderLog(@Value("${multithreading.queue.wal.dir}") String dir,
+                    @Value("${multithreading.queue.wal.segmentSize:67108864}") int segmentSize,
+                    @Value("${multithreading.queue.wal.flushIntervalMs:100}") long flushIntervalMs) throws IOException {
+        this.dir = Path.of(dir);
+        this.segmentSize = segmentSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        Files.createDirectories(this.dir);
+        this.checkpointFile = this.dir.resolve(CHECKPOINT_FILE);
+        readCheckpoint();
+        this.checkpointedSequence = committedSequence;
+        this.replaySkipped = (BitSet) acked.clone();
+        this.replaySkippedBase = ackedBase;
+
+        long lastSequence = recover();
+        this.replayFrom = committedSequence + 1;
+        this.replayTo = lastSequence;
+        this.nextSequence = Math.max(lastSequence, committedSequence) + 1;
+        this.durableSequence = nextSequence - 1;
+        this.requestedSequence = durableSequence;
+        segments.add(Segment.create(this.dir, nextSequence, segmentSize));
+        deleteCommittedSegments(committedSequence);
+        this.recovered = List.copyOf(segments.subList(0, segments.size() - 1));
+        this.replaying = getPendingOrders() > 0;
+
+        this.flusher = new Thread(this::flushLoop, "OrderLog-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("Opened order log at {} with {} orders to replay", this.dir, getPendingOrders());
+    }
+
+    /**
+     * Orders found in the log on startup that had not been acknowledged.
+     */
+    public long getPendingOrders() {
+        long pending = Math.max(0, replayTo - replayFrom + 1);
+        for (int i = replaySkipped.nextSetBit(0); i >= 0; i = replaySkipped.nextSetBit(i + 1))
+            if (isPendingOnStartup(replaySkippedBase + i))
+                pending--;
+        return pending;
+    }
+
+    public long getCommittedSequence() {
+        return committedSequence;
+    }
+
+    /**
+     * Writes the order to the log and stamps it with its sequence. Call {@link #awaitDurable} before relying on it.
+     */
+    public long append(Order order) {
+        appendLock.lock();
+        try {
+            return write(order);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Appends orders [fromIndex, toIndex) under a single lock acquisition and returns the last sequence.
+     */
+    public long appendAll(List<Order> orders, int fromIndex, int toIndex) {
+        appendLock.lock();
+        try {
+            long sequence = 0;
+            for (int i = fromIndex; i < toIndex; i++)
+                sequence = write(orders.get(i));
+            return sequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every record up to the given sequence has been forced to disk.
+     */
+    public void awaitDurable(long sequence) throws InterruptedException {
+        if (durableSequence >= sequence)
+            return;
+        flushLock.lock();
+        try {
+            if (requestedSequence < sequence) {
+                requestedSequence = sequence;
+                flushNeeded.signal();
+            }
+            while (durableSequence < sequence) {
+                if (failure != null)
+                    throw new IllegalStateException("Order log failed before sequence " + sequence + " was flushed", failure);
+                if (closed)
+                    throw new IllegalStateException("Order log closed before sequence " + sequence + " was flushed");
+                flushDone.await();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Marks the order with the given sequence as done, either processed or never enqueued.
+     */
+    public void acknowledge(long sequence) {
+        synchronized (ackLock) {
+            if (sequence < ackedBase)
+                return;
+            acked.set((int) (sequence - ackedBase));
+            ackVersion++;
+            long committed = ackedBase + acked.nextClearBit(0) - 1;
+            if (committed > committedSequence)
+                committedSequence = committed;
+            if (committed - ackedBase >= COMPACT_ACKS) {
+                int shift = (int) (committed + 1 - ackedBase);
+                acked = acked.get(shift, Math.max(shift, acked.length()));
+                ackedBase = committed + 1;
+            }
+        }
+    }
+
+    /**
+     * Hands every order that was pending on startup to the given target, oldest first. The segments it reads are
+     * not deleted before it returns, even once the orders replayed from them are acknowledged.
+     */
+    public void replay(Replayer target) throws InterruptedException {
+        try {
+            for (Segment segment : recovered) {
+                int position = 0;
+                for (int i = 0; i < segment.records; i++) {
+                    int length = segment.buffer.getInt(position);
+                    long sequence = segment.buffer.getLong(position + Integer.BYTES * 2);
+                    if (isPendingOnStartup(sequence) && !isSkipped(sequence)) {
+                        byte[] payload = new byte[length - HEADER_BYTES];
+                        segment.buffer.get(position + HEADER_BYTES, payload);
+                        Order order = new Order(new String(payload, StandardCharsets.UTF_8));
+                        order.logSequence = sequence;
+                        target.accept(order);
+                    }
+                    position += length;
+                }
+            }
+        } finally {
+            releaseRecovered();
+        }
+    }
+
+    @PreDestroy
+    @SneakyThrows
+    public void close() {
+        flushLock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            flushNeeded.signal();
+            flushDone.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+        flusher.join(); // The flusher does a last flush and checkpoint before it exits
+        appendLock.lock();
+        try {
+            for (Segment segment : segments)
+                segment.channel.close();
+        } finally {
+            appendLock.unlock();
+        }
+        log.info("Closed order log at {} (committed sequence {})", dir, committedSequence);
+    }
+
+    @SneakyThrows
+    private long write(Order order) {
+        if (closed)
+            throw new IllegalStateException("Order log is closed");
+        if (failure != null)
+            throw new IllegalStateException("Order log failed to flush, it takes no more orders", failure);
+        byte[] payload = order.getId().getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_BYTES + payload.length;
+        if (length > segmentSize)
+            throw new IllegalArgumentException("Order does not fit in a log segment: " + order);
+        Segment segment = segments.get(segments.size() - 1);
+        if (segment.writePosition + length > segment.buffer.capacity()) {
+            segment = Segment.create(dir, nextSequence, segmentSize);
+            segments.add(segment);
+        }
+        long sequence = nextSequence++;
+        int position = segment.writePosition;
+        segment.buffer.putLong(position + Integer.BYTES * 2, sequence);
+        segment.buffer.put(position + HEADER_BYTES, payload);
+        segment.buffer.putInt(position + Integer.BYTES, checksum(segment.buffer, position, length));
+        segment.buffer.putInt(position, length);
+        segment.writePosition += length;
+        segment.records++;
+        order.logSequence = sequence;
+        return sequence;
+    }
+
+    private void flushLoop() {
+        boolean stop = false;
+        while (!stop) {
+            flushLock.lock();
+            try {
+                if (!closed && requestedSequence <= durableSequence)
+                    flushNeeded.awaitNanos(flushIntervalNanos);
+                stop = closed;
+            } catch (InterruptedException e) {
+                stop = true;
+            } finally {
+                flushLock.unlock();
+            }
+            try {
+                flush();
+            } catch (IOException | RuntimeException e) {
+                failed(e);
+                return;
+            }
+        }
+    }
+
+    private void failed(Exception e) {
+        log.error("Failed to flush the order log, it takes no more orders", e);
+        flushLock.lock();
+        try {
+            failure = e;
+            flushDone.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Package-private so that tests can make it fail.
+     */
+    void flush() throws IOException {
+        long target;
+        List<Segment> dirty = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        appendLock.lock();
+        try {
+            target = nextSequence - 1;
+            for (Segment segment : segments) {
+                if (segment.forcedPosition < segment.writePosition) {
+                    dirty.add(segment);
+                    ends.add(segment.writePosition);
+                }
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        for (int i = 0; i < dirty.size(); i++) {
+            Segment segment = dirty.get(i);
+            segment.buffer.force(segment.forcedPosition, ends.get(i) - segment.forcedPosition);
+            segment.forcedPosition = ends.get(i);
+        }
+        flushLock.lock();
+        try {
+            durableSequence = target;
+            flushDone.signalAll();
+        } finally {
+            flushLock.unlock();
+        }
+
+        writeCheckpoint();
+    }
+
+    /**
+     * Checkpoint layout: committed sequence (long), sequence of the first bit (long), bitmap of the orders
+     * acknowledged beyond the committed sequence. It is replaced atomically, so a crash leaves the previous one.
+     */
+    private void writeCheckpoint() throws IOException {
+        long committed;
+        ByteBuffer buffer;
+        synchronized (ackLock) {
+            if (ackVersion == checkpointedVersion)
+                return;
+            committed = committedSequence;
+            byte[] bitmap = acked.toByteArray();
+            buffer = ByteBuffer.allocate(Long.BYTES * 2 + bitmap.length)
+                    .putLong(committed)
+                    .putLong(ackedBase)
+                    .put(bitmap)
+                    .flip();
+            checkpointedVersion = ackVersion;
+        }
+        Path temporary = dir.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(buffer);
+            channel.force(false);
+        }
+        Files.move(temporary, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        checkpointedSequence = committed;
+        deleteCommittedSegments(committed);
+    }
+
+    private void readCheckpoint() throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            ackedBase = 1; // Sequences start at 1
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpointFile));
+        committedSequence = buffer.getLong();
+        ackedBase = buffer.getLong();
+        acked = BitSet.valueOf(buffer);
+    }
+
+    private boolean isPendingOnStartup(long sequence) {
+        return sequence >= replayFrom && sequence <= replayTo;
+    }
+
+    private boolean isSkipped(long sequence) {
+        return sequence >= replaySkippedBase && replaySkipped.get((int) (sequence - replaySkippedBase));
+    }
+
+    /**
+     * Opens the existing segments and returns the last sequence of the unbroken run of valid records.
+     */
+    private long recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(OrderLog::isSegment)
+                    .sorted(Comparator.comparingLong(OrderLog::firstSequenceOf))
+                    .toList();
+        }
+        long lastSequence = committedSequence;
+        boolean intact = true;
+        for (Path file : files) {
+            if (intact) {
+                Segment segment = Segment.open(file, firstSequenceOf(file));
+                boolean continues = segments.isEmpty() || segment.firstSequence == lastSequence + 1;
+                if (continues && segment.scan() > 0) {
+                    segments.add(segment);
+                    lastSequence = segment.lastSequence();
+                    intact = segment.writePosition + HEADER_BYTES > segment.buffer.capacity()
+                            || segment.buffer.getInt(segment.writePosition) == 0;
+                    continue;
+                }
+                segment.channel.close();
+                intact = false;
+            }
+            log.warn("Discarding order log segment {} after the end of the log", file.getFileName());
+            Files.delete(file);
+        }
+        return lastSequence;
+    }
+
+    /**
+     * Once replay is done, deletes the recovered segments that the checkpoint on disk already commits.
+     */
+    @SneakyThrows(IOException.class)
+    private void releaseRecovered() {
+        appendLock.lock();
+        try {
+            replaying = false;
+        } finally {
+            appendLock.unlock();
+        }
+        deleteCommittedSegments(checkpointedSequence);
+    }
+
+    private void deleteCommittedSegments(long committed) throws IOException {
+        appendLock.lock();
+        try {
+            if (replaying)
+                return;
+            while (segments.size() > 1 && segments.get(0).lastSequence() <= committed) {
+                Segment segment = segments.remove(0);
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private static boolean isSegment(Path file) {
+        String name = file.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long firstSequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static int checksum(ByteBuffer buffer, int position, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(position + Integer.BYTES * 2, length - Integer.BYTES * 2));
+        return (int) crc.getValue();
+    }
+
+    @FunctionalInterface
+    public interface Replayer {
+        void accept(Order order) throws InterruptedException;
+    }
+
+    private static final class Segment {
+        final Path path;
+        final long firstSequence;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePosition;
+        int records;
+        int forcedPosition; // Only touched by the flusher
+
+        private Segment(Path path, long firstSequence, int size) throws IOException {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        static Segment create(Path dir, long firstSequence, int size) throws IOException {
+            return new Segment(dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX)), firstSequence, size);
+        }
+
+        static Segment open(Path path, long firstSequence) throws IOException {
+            return new Segment(path, firstSequence, (int) Files.size(path));
+        }
+
+        /**
+         * Counts the valid records from the start, stopping at the first torn, corrupt or out-of-sequence one.
+         */
+        int scan() {
+            while (writePosition + HEADER_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(writePosition);
+                if (length < HEADER_BYTES || writePosition + length > buffer.capacity())
+                    break;
+                if (buffer.getLong(writePosition + Integer.BYTES * 2) != firstSequence + records)
+                    break;
+                if (buffer.getInt(writePosition + Integer.BYTES) != checksum(buffer, writePosition, length))
+                    break;
+                writePosition += length;
+                records++;
+            }
+            forcedPosition = writePosition;
+            return records;
+        }
+
+        long lastSequence() {
+            return firstSequence + records - 1;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.javieraguerri;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free pool of reusable orders, built on the same MPMC ring as {@link RingBufferQueueEngine}.
+ * It never blocks or allocates: acquiring from an empty pool returns null and releasing into a full pool
+ * leaves the order to the garbage collector.
+ */
+class OrderPool {
+    private final int capacity;
+    private final Order[] items;
+    private final AtomicLongArray sequences;
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+
+    OrderPool(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.items = new Order[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            sequences.set(i, i);
+    }
+
+    Order acquire() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) (pos % capacity);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    Order order = items[index];
+                    items[index] = null;
+                    sequences.set(index, pos + capacity);
+                    return order;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    void release(Order order) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos % capacity);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items[index] = order;
+                    sequences.set(index, pos + 1);
+                    return;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+}
@@ -1,19 +1,30 @@
 package org.javieraguerri;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 @Component
+@Slf4j
 public class OrderProcessor {
-    private final AtomicInteger totalOrdersProcessed = new AtomicInteger(0);
+    // Striped, so that consumers do not all write to the same cache line
+    private final LongAdder totalOrdersProcessed = new LongAdder();
 
     public int getTotalOrdersProcessed() {
-        return totalOrdersProcessed.get();
+        return totalOrdersProcessed.intValue();
     }
 
     public void processOrder(Order order) {
-        System.out.println(Thread.currentThread().getName() + " processing " + order);
-        totalOrdersProcessed.incrementAndGet();
+        if (log.isDebugEnabled())
+            log.debug("Processing {}", order);
+        totalOrdersProcessed.increment();
+    }
+
+    public void processOrders(List<Order> orders) {
+        if (log.isDebugEnabled())
+            log.debug("Processing batch of {} orders", orders.size());
+        totalOrdersProcessed.add(orders.size());
     }
 }
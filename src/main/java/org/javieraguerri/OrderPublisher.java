@@ -0,0 +1,59 @@
+package org.javieraguerri;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes the orders of an {@link OrderQueue} to {@link Flow.Subscriber}s, each order to exactly one of them.
+ * <p>
+ * Every subscription takes orders from the queue as they are requested, up to the outstanding demand in one
+ * go, and completes once the queue is shut down and empty. Waiting on an empty queue is done by a
+ * {@link Worker}, so with a virtual-thread executor (Java 21 and later) subscribers cost no platform thread.
+ * An order is acknowledged to the queue once the subscriber has returned from onNext for it, or from
+ * {@link BatchSubscriber#onBatchEnd} for subscribers that process whole runs; from then on it is theirs, and
+ * not before: if the subscriber throws, its subscription ends and the orders that are not yet its own are put
+ * back in the queue for the other subscribers, so it must not recycle them.
+ */
+public class OrderPublisher implements Flow.Publisher<Order> {
+    private final OrderQueue orderQueue;
+    private final ExecutorService executor;
+    private final AtomicInteger nextSubscription = new AtomicInteger(0);
+
+    /**
+     * A null executor gives every subscription its own platform thread.
+     */
+    public OrderPublisher(OrderQueue orderQueue, ExecutorService executor) {
+        this.orderQueue = orderQueue;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Order> subscriber) {
+        subscribe(subscriber, "Subscription-" + nextSubscription.getAndIncrement());
+    }
+
+    /**
+     * Subscribes with a worker of the given name, which is also the name of its metrics.
+     */
+    OrderSubscription subscribe(Flow.Subscriber<? super Order> subscriber, String name) {
+        return new OrderSubscription(name, orderQueue, subscriber, executor);
+    }
+
+    /**
+     * A subscriber that is also told where each run of orders taken from the queue in one go ends,
+     * so that it can process them as a batch.
+     */
+    public interface BatchSubscriber extends Flow.Subscriber<Order> {
+
+        void onBatchEnd();
+
+        /**
+         * Whether the orders of a run are done with once onBatchEnd returns. Subscribers that pass them on to
+         * another queue answer false, and acknowledge them in the order log themselves once they are done.
+         */
+        default boolean completesOrders() {
+            return true;
+        }
+    }
+}
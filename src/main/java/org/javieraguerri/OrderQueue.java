@@ -1,63 +1,492 @@
 package org.javieraguerri;
 
 import lombok.Getter;
-import lombok.Setter;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayDeque;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 @Component
+@Slf4j
 public class OrderQueue {
-    private final Queue<Order> queue = new ArrayDeque<>();
-    private final int MAX_QUEUE_SIZE;
+    private final OrderQueueEngine engine;
+    // Written by producers and consumers respectively: padded so that they do not share a cache line
+    private final PaddedAtomicLong totalOrdersAdded = new PaddedAtomicLong();
+    private final PaddedAtomicLong inFlight = new PaddedAtomicLong();
+    private final AtomicInteger totalOrdersExpired = new AtomicInteger(0);
+    private final AtomicIntegerArray overflowCounts = new AtomicIntegerArray(EnqueueResult.values().length);
     @Getter
-    private final Object lock = new Object();
-    @Setter
-    private boolean shutdown = false;
+    private final OrderQueueMetrics metrics;
     @Getter
-    protected volatile int totalOrdersAdded = 0;
+    private final int maxQueueSize;
+    @Getter
+    private final OverflowPolicy overflowPolicy;
+    private final long overflowTimeoutNanos;
+    private final OrderSpill spill;
+    private final Thread refiller;
+    private final OrderLog orderLog;
+    private final Thread replayer;
+    private final Queue<Runnable> roomListeners = new ConcurrentLinkedQueue<>();
+    /**
+     * Set as soon as shutdown starts: from then on, batches from outside are turned away.
+     */
+    @Getter
+    private volatile boolean shutdown = false;
 
 
-    protected OrderQueue(@Value("${multithreading.maxQueueSize:4}") int maxQueueSize) {
-        this.MAX_QUEUE_SIZE = maxQueueSize;
+    protected OrderQueue(int maxQueueSize, String queueImpl, OrderQueueMetrics metrics) {
+        this(maxQueueSize, queueImpl, 0, 3, 1000, metrics, Optional.empty());
     }
 
-    protected void addOrder(Order order) throws InterruptedException {
-        synchronized (lock) {
-            while (queue.size() == MAX_QUEUE_SIZE) {
-                System.out.println(Thread.currentThread().getName() + " found the queue full and goes to sleep!");
-                lock.wait();
-                System.out.println(Thread.currentThread().getName() + " woke up!");
-            }
-            queue.add(order);
-            totalOrdersAdded += 1;
-            System.out.println(Thread.currentThread().getName() + " produced: " + order + " (Queue size: " + queue.size() + ")");
-            lock.notifyAll();
+    protected OrderQueue(int maxQueueSize, String queueImpl, int shards, int priorityLevels, long priorityAgingMs,
+                         OrderQueueMetrics metrics, Optional<OrderLog> orderLog) {
+        this(maxQueueSize, queueImpl, shards, priorityLevels, priorityAgingMs, "block", 0, "", metrics, orderLog);
+    }
+
+    /**
+     * With an {@link OrderLog} every order is logged before it is enqueued and acknowledged once processed,
+     * and the orders left in the log by a previous run are put back in the queue by a background thread.
+     * With the spill overflow policy another background thread moves spilled orders into the queue.
+     */
+    @Autowired
+    @SneakyThrows
+    protected OrderQueue(@Value("${multithreading.maxQueueSize:4}") int maxQueueSize,
+                         @Value("${multithreading.queue.impl:monitor}") String queueImpl,
+                         @Value("${multithreading.queue.shards:0}") int shards,
+                         @Value("${multithreading.queue.priority.levels:3}") int priorityLevels,
+                         @Value("${multithreading.queue.priority.agingMs:1000}") long priorityAgingMs,
+                         @Value("${multithreading.queue.overflow.policy:block}") String overflowPolicy,
+                         @Value("${multithreading.queue.overflow.timeoutMs:100}") long overflowTimeoutMs,
+                         @Value("${multithreading.queue.overflow.spillFile:order-overflow.spill}") String spillFile,
+                         OrderQueueMetrics metrics,
+                         Optional<OrderLog> orderLog) {
+        this.metrics = metrics;
+        this.maxQueueSize = maxQueueSize;
+        this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase());
+        this.overflowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(overflowTimeoutMs);
+        this.engine = switch (queueImpl.trim().toLowerCase()) {
+            case "monitor" -> new MonitorQueueEngine(maxQueueSize, metrics);
+            case "ringbuffer" -> new RingBufferQueueEngine(maxQueueSize, metrics);
+            case "sharded" -> new ShardedQueueEngine(maxQueueSize, shards, metrics);
+            case "priority" -> new PriorityQueueEngine(maxQueueSize, priorityLevels, priorityAgingMs, metrics);
+            default -> throw new IllegalArgumentException("Unknown multithreading.queue.impl: " + queueImpl);
+        };
+        this.orderLog = orderLog.orElse(null);
+        if (this.orderLog != null && this.orderLog.getPendingOrders() > 0) {
+            this.replayer = new Thread(this::replay, "OrderQueue-replay");
+            replayer.start();
+        } else
+            this.replayer = null;
+        if (this.overflowPolicy == OverflowPolicy.SPILL) {
+            this.spill = new OrderSpill(Path.of(spillFile));
+            this.refiller = new Thread(this::refill, "OrderQueue-refill");
+            refiller.start();
+        } else {
+            this.spill = null;
+            this.refiller = null;
+        }
+    }
+
+    /**
+     * Enqueues the order, applying the overflow policy if the queue is full. Orders that are not
+     * {@link EnqueueResult#isQueued() queued} are handed back to the caller; spilled ones are not.
+     */
+    protected EnqueueResult addOrder(Order order) throws InterruptedException {
+        long sequence = orderLog == null ? 0 : orderLog.append(order);
+        totalOrdersAdded.incrementAndGet(); // Before a consumer can see it, so processed never runs ahead of added
+        EnqueueResult result;
+        try {
+            result = enqueue(order);
+        } catch (InterruptedException e) {
+            totalOrdersAdded.addAndGet(-1);
+            if (orderLog != null)
+                orderLog.acknowledge(sequence); // Never enqueued
+            throw e;
+        }
+        if (result == EnqueueResult.ACCEPTED || result == EnqueueResult.DROPPED_OLDEST)
+            metrics.enqueued(1);
+        else {
+            totalOrdersAdded.addAndGet(-1); // Spilled orders are counted once they enter the queue
+            overflowed(result);
+        }
+        if (orderLog != null) {
+            if (result.isQueued())
+                orderLog.awaitDurable(sequence); // Only after counting it: the order is queued even if the wait is interrupted
+            else
+                orderLog.acknowledge(sequence);
         }
+        return result;
     }
 
+    /**
+     * Takes the next order, dropping the expired ones on the way. Returns null once shut down and empty.
+     */
     protected Order removeOrder() throws InterruptedException {
-        synchronized (lock) {
-            while (queue.isEmpty()) {
-                if (shutdown)
-                    return null;
-                System.out.println(Thread.currentThread().getName() + " found the queue empty and goes to sleep!");
-                lock.wait();
-                System.out.println(Thread.currentThread().getName() + " woke up!");
+        Order order;
+        do {
+            order = engine.take();
+            if (order == null)
+                return null;
+            metrics.dequeued(1);
+        } while (dropIfExpired(order));
+        order.markDequeued(System.nanoTime());
+        inFlight.incrementAndGet();
+        if (!roomListeners.isEmpty())
+            madeRoom();
+        return order;
+    }
+
+    @SneakyThrows
+    protected boolean offerOrder(Order order) {
+        long sequence = orderLog == null ? 0 : orderLog.append(order);
+        totalOrdersAdded.incrementAndGet();
+        if (!engine.offer(order)) {
+            totalOrdersAdded.addAndGet(-1);
+            if (orderLog != null)
+                orderLog.acknowledge(sequence);
+            return false;
+        }
+        metrics.enqueued(1);
+        if (orderLog != null)
+            orderLog.awaitDurable(sequence);
+        return true;
+    }
+
+    protected Order pollOrder() {
+        Order order;
+        do {
+            order = engine.poll();
+            if (order == null)
+                return null;
+            metrics.dequeued(1);
+        } while (dropIfExpired(order));
+        order.markDequeued(System.nanoTime());
+        inFlight.incrementAndGet();
+        if (!roomListeners.isEmpty())
+            madeRoom();
+        return order;
+    }
+
+    /**
+     * Queues as many of the orders as fit right now, first to last, and returns how many; never waits for room,
+     * whatever the overflow policy. The orders left out are counted as {@link EnqueueResult#REJECTED} and
+     * handed back to the caller. Once the queue is shutting down it takes none, and counts none as rejected.
+     */
+    protected int offerAll(List<Order> orders) throws InterruptedException {
+        if (shutdown)
+            return 0;
+        long lastSequence = orderLog == null ? 0 : orderLog.appendAll(orders, 0, orders.size());
+        totalOrdersAdded.addAndGet(orders.size());
+        int added = 0;
+        int count;
+        while (added < orders.size() && (count = engine.offerBatch(orders, added)) > 0) {
+            metrics.enqueued(count);
+            added += count;
+        }
+        if (added < orders.size()) {
+            totalOrdersAdded.addAndGet(added - orders.size());
+            for (int i = added; i < orders.size(); i++) {
+                overflowed(EnqueueResult.REJECTED);
+                acknowledgeInLog(orders.get(i));
             }
-            Order order = queue.poll();
-            if (order != null)
-                System.out.println(Thread.currentThread().getName() + " consumed: " + order + " (Queue size: " + queue.size() + ")");
-            lock.notifyAll();
-            return order;
         }
+        if (orderLog != null && added > 0)
+            orderLog.awaitDurable(lastSequence);
+        return added;
+    }
+
+    /**
+     * Blocks until every order is queued, whatever the overflow policy.
+     */
+    protected void addAll(List<Order> orders) throws InterruptedException {
+        long lastSequence = orderLog == null ? 0 : orderLog.appendAll(orders, 0, orders.size());
+        int added = 0;
+        totalOrdersAdded.addAndGet(orders.size());
+        try {
+            while (added < orders.size()) {
+                int count = engine.putBatch(orders, added);
+                metrics.enqueued(count);
+                added += count;
+            }
+        } catch (InterruptedException e) {
+            totalOrdersAdded.addAndGet(added - orders.size());
+            if (orderLog != null)
+                for (int i = added; i < orders.size(); i++)
+                    orderLog.acknowledge(orders.get(i).getLogSequence());
+            throw e;
+        }
+        if (orderLog != null)
+            orderLog.awaitDurable(lastSequence);
+    }
+
+    /**
+     * Appends up to maxOrders orders to the target, dropping the expired ones. Returns 0 once shut down and empty.
+     */
+    protected int drainTo(List<Order> target, int maxOrders) throws InterruptedException {
+        while (true) {
+            int from = target.size();
+            int count = engine.drainTo(target, maxOrders);
+            if (count == 0)
+                return 0;
+            metrics.dequeued(count);
+            for (int i = target.size() - 1; i >= from; i--) {
+                if (dropIfExpired(target.get(i))) {
+                    target.remove(i);
+                    count--;
+                }
+            }
+            if (count > 0) {
+                long now = System.nanoTime();
+                for (int i = from; i < target.size(); i++)
+                    target.get(i).markDequeued(now);
+                inFlight.addAndGet(count);
+                if (!roomListeners.isEmpty())
+                    madeRoom();
+                return count;
+            }
+        }
+    }
+
+    /**
+     * Marks a processed order as done: it is no longer in flight, and not replayed after a restart.
+     */
+    protected void acknowledge(Order order) {
+        acknowledge(order.getLogSequence());
+    }
+
+    /**
+     * Same as {@link #acknowledge(Order)}, for an order that may already have been recycled.
+     */
+    protected void acknowledge(long logSequence) {
+        inFlight.addAndGet(-1);
+        if (orderLog != null && logSequence != 0)
+            orderLog.acknowledge(logSequence);
+    }
+
+    /**
+     * Puts back orders taken from the queue whose subscriber failed before it was done with them, for another
+     * one to take, blocking while the queue is full. They keep their place in the log. Returns how many were put
+     * back: if the wait is interrupted, the others are left in flight.
+     */
+    protected int requeue(List<Order> orders) {
+        int count = 0;
+        try {
+            for (Order order : orders) {
+                order.markRedelivered();
+                engine.put(order);
+                inFlight.addAndGet(-1);
+                metrics.enqueued(1);
+                count++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return count;
+    }
+
+    /**
+     * Marks orders taken from the queue as passed on to another one: they are no longer in flight here, but stay
+     * in the log until {@link #acknowledgeInLog} is called for each of them.
+     */
+    protected void handOver(int count) {
+        inFlight.addAndGet(-count);
     }
 
     protected int currentSize() {
-        synchronized (lock) {
-            return queue.size();
+        return engine.size();
+    }
+
+    public void shutdown() {
+        shutdown(0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the background threads and lets consumers exit once the queue is empty. Spilled orders get up to
+     * the given time to be moved into the queue. Orders the replay or the refill did not get to are left out
+     * (see {@link #getSpilledOrders}), and stay in the order log, if any, for the next run.
+     */
+    @SneakyThrows
+    public void shutdown(long timeout, TimeUnit unit) {
+        shutdown = true;
+        if (replayer != null) {
+            replayer.interrupt();
+            replayer.join();
+        }
+        if (refiller != null) {
+            spill.finish();
+            unit.timedJoin(refiller, timeout);
+            refiller.interrupt();
+            refiller.join();
+            spill.close();
+        }
+        engine.shutdown();
+        madeRoom();
+    }
+
+    /**
+     * Has the listener run once, on the thread of the next consumer to take orders or on shutdown, for
+     * subscribers that wait for room without a thread. Returns true if there is room already, as the
+     * listener may have been added too late for the consumer that made it.
+     */
+    protected boolean whenRoom(Runnable listener) {
+        roomListeners.add(listener);
+        return shutdown || engine.size() < maxQueueSize;
+    }
+
+    public int getTotalOrdersAdded() {
+        return (int) totalOrdersAdded.get();
+    }
+
+    public int getTotalOrdersExpired() {
+        return totalOrdersExpired.get();
+    }
+
+    /**
+     * Orders that found the queue full and ended up with the given result, or that were dropped to make room
+     * for {@link EnqueueResult#DROPPED_OLDEST}.
+     */
+    public int getTotalOrders(EnqueueResult result) {
+        return overflowCounts.get(result.ordinal());
+    }
+
+    public int getSpilledOrders() {
+        return spill == null ? 0 : spill.size();
+    }
+
+    /**
+     * Orders taken from the queue and not acknowledged yet.
+     */
+    public int getInFlightOrders() {
+        return (int) inFlight.get();
+    }
+
+    private EnqueueResult enqueue(Order order) throws InterruptedException {
+        return switch (overflowPolicy) {
+            case BLOCK -> {
+                engine.put(order);
+                yield EnqueueResult.ACCEPTED;
+            }
+            case TIMEOUT -> engine.offer(order, overflowTimeoutNanos, TimeUnit.NANOSECONDS)
+                    ? EnqueueResult.ACCEPTED : EnqueueResult.TIMED_OUT;
+            case REJECT -> engine.offer(order) ? EnqueueResult.ACCEPTED : EnqueueResult.REJECTED;
+            case CALLER_RUNS -> engine.offer(order) ? EnqueueResult.ACCEPTED : EnqueueResult.CALLER_RUNS;
+            case DROP_OLDEST -> offerDroppingOldest(order);
+            // Once spilling, later orders follow the spilled ones so they enter the queue in order
+            case SPILL -> spill.size() == 0 && engine.offer(order) ? EnqueueResult.ACCEPTED : spill(order);
+        };
+    }
+
+    private EnqueueResult offerDroppingOldest(Order order) {
+        EnqueueResult result = EnqueueResult.ACCEPTED;
+        while (!engine.offer(order)) {
+            Order oldest = engine.pollOldest();
+            if (oldest == null)
+                continue; // Consumers made room meanwhile
+            metrics.dequeued(1);
+            if (log.isDebugEnabled())
+                log.debug("Dropped {} to make room", oldest);
+            overflowed(EnqueueResult.DROPPED_OLDEST);
+            acknowledgeInLog(oldest);
+            oldest.release();
+            result = EnqueueResult.DROPPED_OLDEST;
+        }
+        return result;
+    }
+
+    @SneakyThrows(IOException.class)
+    private EnqueueResult spill(Order order) {
+        spill.append(order);
+        order.release();
+        return EnqueueResult.SPILLED;
+    }
+
+    private void overflowed(EnqueueResult result) {
+        overflowCounts.incrementAndGet(result.ordinal());
+        metrics.overflowed(result);
+    }
+
+    private boolean dropIfExpired(Order order) {
+        if (!order.isExpired())
+            return false;
+        if (log.isDebugEnabled())
+            log.debug("Dropped expired {}", order);
+        totalOrdersExpired.incrementAndGet();
+        metrics.expired(1);
+        acknowledgeInLog(order);
+        order.release();
+        if (!roomListeners.isEmpty())
+            madeRoom();
+        return true;
+    }
+
+    /**
+     * Moves spilled orders into the queue, oldest first, blocking while it is full.
+     */
+    private void refill() {
+        try {
+            Order order;
+            while ((order = spill.take()) != null) {
+                totalOrdersAdded.incrementAndGet();
+                try {
+                    engine.put(order);
+                } catch (InterruptedException e) {
+                    totalOrdersAdded.addAndGet(-1);
+                    log.warn("Spilled {} was never queued", order);
+                    throw e;
+                }
+                metrics.enqueued(1);
+            }
+        } catch (InterruptedException e) {
+            log.info("Refill stopped");
+        } catch (IOException e) {
+            log.error("Overflow file failed, spilled orders are lost", e);
+        }
+    }
+
+    /**
+     * Runs the listeners added so far only: one that finds no room adds itself again, for the next consumer.
+     */
+    private void madeRoom() {
+        Runnable listener;
+        for (int waiting = roomListeners.size(); waiting > 0 && (listener = roomListeners.poll()) != null; waiting--)
+            listener.run();
+    }
+
+    /**
+     * Marks an order as done in the log only, for one that was handed over or never enqueued.
+     */
+    protected void acknowledgeInLog(Order order) {
+        if (orderLog != null && order.getLogSequence() != 0)
+            orderLog.acknowledge(order.getLogSequence());
+    }
+
+    private void replay() {
+        log.info("Replaying {} orders from the order log", orderLog.getPendingOrders());
+        try {
+            orderLog.replay(order -> {
+                totalOrdersAdded.incrementAndGet();
+                try {
+                    engine.put(order);
+                } catch (InterruptedException e) {
+                    totalOrdersAdded.addAndGet(-1);
+                    throw e;
+                }
+                metrics.enqueued(1);
+            });
+            log.info("Replay complete");
+        } catch (InterruptedException e) {
+            log.info("Replay interrupted, the remaining orders stay in the log");
         }
     }
 }
@@ -0,0 +1,71 @@
+package org.javieraguerri;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage and blocking strategy behind {@link OrderQueue}.
+ * Implementations are bounded and must be safe for multiple producers and multiple consumers.
+ */
+public interface OrderQueueEngine {
+
+    /**
+     * Inserts the order, blocking while the queue is full.
+     */
+    void put(Order order) throws InterruptedException;
+
+    /**
+     * Removes the oldest order, blocking while the queue is empty.
+     * Returns null once the engine has been shut down and there is nothing left to take.
+     */
+    Order take() throws InterruptedException;
+
+    /**
+     * Inserts the order if there is room, without blocking. Returns false if the queue is full.
+     */
+    boolean offer(Order order);
+
+    /**
+     * Inserts the order, waiting up to the given time for room. Returns false if the queue is still full.
+     */
+    boolean offer(Order order, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * Removes the oldest order if there is one, without blocking. Returns null if the queue is empty.
+     */
+    Order poll();
+
+    /**
+     * Removes the order that is least worth keeping, for the drop-oldest overflow policy, without blocking.
+     * Returns null if the queue is empty. For FIFO engines this is the head of the queue.
+     */
+    default Order pollOldest() {
+        return poll();
+    }
+
+    /**
+     * Inserts as many orders as currently fit, starting at {@code fromIndex}, under a single synchronization.
+     * Blocks until at least one order fits and returns the number of orders inserted.
+     */
+    int putBatch(List<Order> orders, int fromIndex) throws InterruptedException;
+
+    /**
+     * Like {@link #putBatch}, but returns 0 right away if the queue is full.
+     */
+    int offerBatch(List<Order> orders, int fromIndex);
+
+    /**
+     * Moves up to {@code maxOrders} orders into {@code target} under a single synchronization.
+     * Blocks until at least one order is available and returns the number of orders moved,
+     * or 0 once the engine has been shut down and there is nothing left to take.
+     */
+    int drainTo(Collection<Order> target, int maxOrders) throws InterruptedException;
+
+    int size();
+
+    /**
+     * Stops consumers from waiting on an empty queue and wakes up the ones that are asleep.
+     */
+    void shutdown();
+}
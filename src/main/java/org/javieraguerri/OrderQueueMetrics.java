@@ -0,0 +1,314 @@
+package org.javieraguerri;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live metrics of the order pipeline, published through Micrometer (see /actuator/metrics).
+ * Hot-path recording only touches striped {@link LongAdder}s and a fixed-memory latency histogram, waits take a
+ * short lock as the thread is about to block anyway; per-second rates are derived from the adders by a background sampler.
+ */
+@Component
+public class OrderQueueMetrics {
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final MeterRegistry registry;
+    private final Tags tags;
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder dequeued = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final Map<EnqueueResult, LongAdder> overflows = new EnumMap<>(EnqueueResult.class);
+    private final WaitTracker producerWaits = new WaitTracker();
+    private final WaitTracker consumerWaits = new WaitTracker();
+    private final Timer latency;
+    private final ConcurrentMap<String, List<Meter>> workerMeters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sampler;
+    /**
+     * Every how many orders the tracers log one (0 for none). Queues of other components reuse the bean's.
+     */
+    @Getter
+    private final int traceSampleRate;
+
+    @Getter
+    private volatile double enqueueRate;
+    @Getter
+    private volatile double dequeueRate;
+    /**
+     * Seconds producers spent blocked on a full queue during the last second, summed over all producers.
+     */
+    @Getter
+    private volatile double producerBlockedRate;
+    /**
+     * Seconds consumers spent blocked on an empty queue during the last second, summed over all consumers.
+     */
+    @Getter
+    private volatile double consumerBlockedRate;
+
+    private long lastEnqueued;
+    private long lastDequeued;
+    private long lastProducerBlockedNanos;
+    private long lastConsumerBlockedNanos;
+
+    @Autowired
+    public OrderQueueMetrics(MeterRegistry registry, @Value("${multithreading.trace.sampleRate:0}") int traceSampleRate) {
+        this(registry, Tags.empty(), traceSampleRate);
+    }
+
+    /**
+     * Metrics of another queue, such as the input queue of a {@link Pipeline} stage, told apart by the given tags.
+     * Unlike the bean, they must be {@link #close() closed} once the queue is no longer used.
+     */
+    public OrderQueueMetrics(MeterRegistry registry, Tags tags, int traceSampleRate) {
+        this.registry = registry;
+        this.tags = tags;
+        this.traceSampleRate = traceSampleRate;
+        FunctionCounter.builder("orders.enqueued", enqueued, LongAdder::sum)
+                .description("Orders added to the queue")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("orders.dequeued", dequeued, LongAdder::sum)
+                .description("Orders taken from the queue")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("orders.expired", expired, LongAdder::sum)
+                .description("Orders dropped because their deadline passed before they were processed")
+                .tags(tags)
+                .register(registry);
+        for (EnqueueResult result : EnqueueResult.values()) {
+            if (result == EnqueueResult.ACCEPTED)
+                continue;
+            LongAdder count = new LongAdder();
+            overflows.put(result, count);
+            FunctionCounter.builder("orders.overflow", count, LongAdder::sum)
+                    .description("Orders that found the queue full, by what happened to them")
+                    .tags(tags)
+                    .tag("outcome", result.name().toLowerCase())
+                    .register(registry);
+        }
+        Gauge.builder("orders.enqueue.rate", this, OrderQueueMetrics::getEnqueueRate)
+                .description("Orders added per second")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("orders.dequeue.rate", this, OrderQueueMetrics::getDequeueRate)
+                .description("Orders taken per second")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("orders.producer.blocked", producerWaits, w -> w.blockedNanos() / NANOS_PER_SECOND)
+                .description("Time producers spent blocked on a full queue")
+                .baseUnit("seconds")
+                .tags(tags)
+                .register(registry);
+        FunctionCounter.builder("orders.consumer.blocked", consumerWaits, w -> w.blockedNanos() / NANOS_PER_SECOND)
+                .description("Time consumers spent blocked on an empty queue")
+                .baseUnit("seconds")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("orders.producer.waiting", producerWaits, WaitTracker::waiting)
+                .description("Producers currently blocked on a full queue")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("orders.consumer.waiting", consumerWaits, WaitTracker::waiting)
+                .description("Consumers currently blocked on an empty queue")
+                .tags(tags)
+                .register(registry);
+        this.latency = Timer.builder("orders.latency")
+                .description("Time from entering the queue to being processed")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .distributionStatisticExpiry(Duration.ofMinutes(1))
+                .tags(tags)
+                .register(registry);
+
+        this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "OrderQueueMetrics-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public void enqueued(int count) {
+        enqueued.add(count);
+    }
+
+    public void dequeued(int count) {
+        dequeued.add(count);
+    }
+
+    public void expired(int count) {
+        expired.add(count);
+    }
+
+    /**
+     * Counts an order that found the queue full. For {@link EnqueueResult#DROPPED_OLDEST}, counts the dropped order.
+     */
+    public void overflowed(EnqueueResult result) {
+        overflows.get(result).increment();
+    }
+
+    /**
+     * Marks the start of a producer wait on a full queue. Pass the returned value to {@link #producerWaitEnded}.
+     */
+    public long producerWaitStarted() {
+        return producerWaits.started();
+    }
+
+    public void producerWaitEnded(long startedAt) {
+        producerWaits.ended(startedAt);
+    }
+
+    /**
+     * Marks the start of a consumer wait on an empty queue. Pass the returned value to {@link #consumerWaitEnded}.
+     */
+    public long consumerWaitStarted() {
+        return consumerWaits.started();
+    }
+
+    public void consumerWaitEnded(long startedAt) {
+        consumerWaits.ended(startedAt);
+    }
+
+    public void processed(Order order) {
+        long enqueuedAt = order.getEnqueuedAtNanos();
+        if (enqueuedAt != 0)
+            latency.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+    }
+
+    public Timer getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns one of the published percentiles (0.5, 0.99 or 0.999) of the enqueue-to-process latency, or 0 if unknown.
+     */
+    public double getLatencyPercentile(double percentile, TimeUnit unit) {
+        for (ValueAtPercentile value : latency.takeSnapshot().percentileValues())
+            if (value.percentile() == percentile)
+                return value.value(unit);
+        return 0;
+    }
+
+    /**
+     * Registers the per-worker counter published as orders.worker.handled{worker=name}.
+     * Worker names must be unique among live workers.
+     */
+    public LongAdder registerWorker(String name) {
+        LongAdder handled = new LongAdder();
+        Meter meter = FunctionCounter.builder("orders.worker.handled", handled, LongAdder::sum)
+                .description("Orders produced or processed by a single worker")
+                .tag("worker", name)
+                .tags(tags)
+                .register(registry);
+        addWorkerMeter(name, meter);
+        return handled;
+    }
+
+    /**
+     * Registers the queue-wait and service-time histograms of a consumer, published as orders.queue.wait and
+     * orders.service.time {worker=name}, and removed with its {@link #unregisterWorker worker counter}.
+     * One in multithreading.trace.sampleRate of its orders is also logged with the full breakdown of its time.
+     */
+    public OrderTracer registerTracer(String name) {
+        Timer queueWait = Timer.builder("orders.queue.wait")
+                .description("Time from entering the queue to being taken by a consumer")
+                .publishPercentiles(0.5, 0.99)
+                .distributionStatisticExpiry(Duration.ofMinutes(1))
+                .tag("worker", name)
+                .tags(tags)
+                .register(registry);
+        Timer serviceTime = Timer.builder("orders.service.time")
+                .description("Time from being taken by a consumer to being processed")
+                .publishPercentiles(0.5, 0.99)
+                .distributionStatisticExpiry(Duration.ofMinutes(1))
+                .tag("worker", name)
+                .tags(tags)
+                .register(registry);
+        addWorkerMeter(name, queueWait);
+        addWorkerMeter(name, serviceTime);
+        return new OrderTracer(name, queueWait, serviceTime, traceSampleRate);
+    }
+
+    public void unregisterWorker(String name) {
+        List<Meter> meters = workerMeters.remove(name);
+        if (meters != null)
+            meters.forEach(registry::remove);
+    }
+
+    private void addWorkerMeter(String name, Meter meter) {
+        workerMeters.computeIfAbsent(name, key -> new CopyOnWriteArrayList<>()).add(meter);
+    }
+
+    @PreDestroy
+    public void close() {
+        sampler.shutdownNow();
+    }
+
+    private void sample() {
+        long currentEnqueued = enqueued.sum();
+        long currentDequeued = dequeued.sum();
+        long currentProducerBlocked = producerWaits.blockedNanos();
+        long currentConsumerBlocked = consumerWaits.blockedNanos();
+        enqueueRate = currentEnqueued - lastEnqueued;
+        dequeueRate = currentDequeued - lastDequeued;
+        producerBlockedRate = Math.max(0, currentProducerBlocked - lastProducerBlockedNanos) / NANOS_PER_SECOND;
+        consumerBlockedRate = Math.max(0, currentConsumerBlocked - lastConsumerBlockedNanos) / NANOS_PER_SECOND;
+        lastEnqueued = currentEnqueued;
+        lastDequeued = currentDequeued;
+        lastProducerBlockedNanos = currentProducerBlocked;
+        lastConsumerBlockedNanos = currentConsumerBlocked;
+    }
+
+    /**
+     * Accumulates blocked time including waits that are still in progress, so that a thread stuck on
+     * a full or empty queue shows up in the rates before it wakes up.
+     * In-progress time is count * now - sum(start times). The three are updated and read together, with now
+     * taken under the lock, so the total never goes backwards when a wait starts or ends.
+     */
+    private static class WaitTracker {
+        private long completedNanos;
+        private int waiting;
+        private long startedAtSum;
+
+        synchronized long started() {
+            long now = System.nanoTime();
+            waiting++;
+            startedAtSum += now;
+            return now;
+        }
+
+        synchronized void ended(long startedAt) {
+            completedNanos += System.nanoTime() - startedAt;
+            startedAtSum -= startedAt;
+            waiting--;
+        }
+
+        synchronized int waiting() {
+            return waiting;
+        }
+
+        synchronized long blockedNanos() {
+            return completedNanos + waiting * System.nanoTime() - startedAtSum;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.javieraguerri;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * FIFO sub-queue with its own lock, for engines that split the queue into independently locked parts.
+ * It is unbounded: the engine enforces the capacity across all of its shards.
+ * The size and the enqueue time of the oldest order can be read without taking the lock.
+ */
+class OrderShard {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Order> orders = new ArrayDeque<>();
+    private volatile int size;
+    private volatile long headEnqueuedAtNanos;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Enqueue time of the oldest order, only meaningful while the shard is not empty.
+     */
+    long headEnqueuedAtNanos() {
+        return headEnqueuedAtNanos;
+    }
+
+    void add(Order order) {
+        lock.lock();
+        try {
+            order.markEnqueued();
+            orders.add(order);
+            updated();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void addAll(List<Order> source, int fromIndex, int count) {
+        lock.lock();
+        try {
+            for (int i = fromIndex; i < fromIndex + count; i++) {
+                Order order = source.get(i);
+                order.markEnqueued();
+                orders.add(order);
+            }
+            updated();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Order poll() {
+        if (size == 0)
+            return null;
+        lock.lock();
+        try {
+            Order order = orders.poll();
+            updated();
+            return order;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int drainTo(Collection<Order> target, int maxOrders) {
+        if (size == 0)
+            return 0;
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < maxOrders && !orders.isEmpty()) {
+                target.add(orders.poll());
+                count++;
+            }
+            updated();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updated() {
+        Order head = orders.peek();
+        if (head != null)
+            headEnqueuedAtNanos = head.getEnqueuedAtNanos();
+        size = orders.size();
+    }
+}
@@ -0,0 +1,138 @@
+package org.javieraguerri;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * FIFO overflow file for orders that did not fit in the queue (see {@link OverflowPolicy#SPILL}).
+ * <p>
+ * Orders are appended at the write position and read back from the read position; once both meet the file is
+ * truncated, so it only grows while the queue stays full. It is not forced to disk: it bounds memory, not loss.
+ * Persistence is the job of the {@link OrderLog}, and the order keeps its log sequence through the spill.
+ * <p>
+ * Record layout: length (int), log sequence (long), priority (int), deadline (long), order id (UTF-8).
+ */
+@Slf4j
+class OrderSpill {
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES + Long.BYTES;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+    private long writePosition;
+    private long readPosition;
+    private volatile int size;
+    private boolean finished = false;
+
+    OrderSpill(Path file) throws IOException {
+        this.file = file;
+        if (file.getParent() != null)
+            Files.createDirectories(file.getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        log.info("Spilling orders to {} when the queue is full", file);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void append(Order order) throws IOException {
+        byte[] payload = order.getId().getBytes(StandardCharsets.UTF_8);
+        int length = HEADER_BYTES + payload.length;
+        lock.lock();
+        try {
+            if (buffer.capacity() < length)
+                buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+            buffer.clear();
+            buffer.putInt(length).putLong(order.getLogSequence()).putInt(order.getPriority())
+                    .putLong(order.getDeadlineNanos()).put(payload).flip();
+            while (buffer.hasRemaining())
+                writePosition += channel.write(buffer, writePosition);
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the oldest spilled order, blocking while there is none. Returns null once finished and empty.
+     */
+    Order take() throws InterruptedException, IOException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (finished)
+                    return null;
+                notEmpty.await();
+            }
+            buffer.clear().limit(Integer.BYTES);
+            read(readPosition);
+            int length = buffer.getInt(0);
+            if (buffer.capacity() < length)
+                buffer = ByteBuffer.allocate(length);
+            buffer.clear().limit(length);
+            read(readPosition);
+            buffer.flip().position(Integer.BYTES);
+            long logSequence = buffer.getLong();
+            int priority = buffer.getInt();
+            long deadlineNanos = buffer.getLong();
+            String id = new String(buffer.array(), HEADER_BYTES, length - HEADER_BYTES, StandardCharsets.UTF_8);
+            readPosition += length;
+            if (--size == 0) {
+                channel.truncate(0);
+                readPosition = writePosition = 0;
+            }
+            Order order = new Order(id).withPriority(priority).withDeadline(deadlineNanos);
+            order.logSequence = logSequence;
+            return order;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * No more orders will be appended: {@link #take} returns null instead of waiting once the file is empty.
+     */
+    void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() throws IOException {
+        lock.lock();
+        try {
+            if (size > 0)
+                log.warn("{} spilled orders were never queued", size);
+            channel.close();
+            Files.deleteIfExists(file);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void read(long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Truncated overflow file " + file);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.javieraguerri;
+
+import java.util.List;
+
+/**
+ * One step of a {@link Pipeline}, such as validating, enriching or persisting an order.
+ * Stages are Spring beans, referred to by their bean name in multithreading.pipeline.stages.
+ */
+@FunctionalInterface
+public interface OrderStage {
+
+    void process(Order order);
+
+    /**
+     * Processes the orders a worker took in one go. Override it where a batch is cheaper than its orders one by one.
+     */
+    default void process(List<Order> orders) {
+        for (Order order : orders)
+            process(order);
+    }
+}
@@ -0,0 +1,288 @@
+package org.javieraguerri;
+
+import lombok.Getter;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Feeds an {@link OrderQueue} from any {@link Flow.Publisher} of orders, on the threads the publisher calls it on.
+ * <p>
+ * onNext puts the order straight in the queue, applying its overflow policy, so there is no thread per source.
+ * Under the block policy it never waits for room either: it requests no more orders than the queue has room
+ * for, up to batchSize, and keeps the few that lose the race for it to other producers in a buffer of
+ * batchSize slots, allocated up front. With the buffer in use or the queue full it requests nothing, and the
+ * next consumer to make room moves the buffered orders in and requests more, so a full queue holds the source
+ * back through its demand. Orders the queue hands back under caller-runs are processed with
+ * callerRunsProcessor, or dropped if it is null. The subscriber is done once the source completes or fails and
+ * its buffer is empty, or once it is cancelled.
+ */
+@Slf4j
+public class OrderSubscriber implements Flow.Subscriber<Order> {
+    private static final long WAIT_FOR_ROOM = -1;
+    private static final long CANCEL = -2;
+
+    @Getter
+    private final String name;
+    private final OrderQueue orderQueue;
+    private final int batchSize;
+    private final OrderProcessor callerRunsProcessor;
+    private final boolean blocking;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final Order[] buffer;
+    private int head;
+    private int buffered;
+    private long outstanding;
+    private boolean stalled;
+    private long stalledAt;
+    private boolean listening;
+    private boolean ended;
+    private boolean done;
+    private LongAdder handled;
+    private volatile Flow.Subscription subscription;
+
+    public OrderSubscriber(String name, OrderQueue orderQueue, int batchSize, OrderProcessor callerRunsProcessor) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        this.name = name;
+        this.orderQueue = orderQueue;
+        this.batchSize = batchSize;
+        this.callerRunsProcessor = callerRunsProcessor;
+        this.blocking = orderQueue.getOverflowPolicy() == OverflowPolicy.BLOCK;
+        this.buffer = new Order[batchSize];
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel(); // A subscriber serves a single source
+            return;
+        }
+        this.subscription = subscription;
+        handled = orderQueue.getMetrics().registerWorker(name);
+        log.info("{} subscribed", name);
+        drive();
+    }
+
+    @Override
+    public void onNext(Order order) {
+        boolean requestMore;
+        lock.lock();
+        try {
+            if (done) {
+                order.release();
+                return;
+            }
+            if (buffered == buffer.length) {
+                log.error("{} got more orders than it requested, dropped {}", name, order);
+                order.release();
+                return;
+            }
+            outstanding--;
+            if (buffered == 0 && offer(order))
+                handled.increment();
+            else
+                buffer[(head + buffered++) % buffer.length] = order;
+            requestMore = outstanding <= 0;
+        } finally {
+            lock.unlock();
+        }
+        if (requestMore)
+            drive();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        log.error("Source of {} failed", name, throwable);
+        end();
+    }
+
+    @Override
+    public void onComplete() {
+        log.info("Source of {} completed", name);
+        end();
+    }
+
+    /**
+     * Stops taking orders from the source. Orders still in the buffer were never queued, and are dropped.
+     */
+    public void cancel() {
+        lock.lock();
+        try {
+            if (done)
+                return;
+            dropBuffered();
+        } finally {
+            lock.unlock();
+        }
+        Flow.Subscription subscription = this.subscription;
+        if (subscription != null)
+            subscription.cancel();
+    }
+
+    @SneakyThrows
+    public void join() {
+        finished.await();
+    }
+
+    /**
+     * Returns false if the subscriber is still taking orders after the given time.
+     */
+    public boolean join(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    private void end() {
+        lock.lock();
+        try {
+            ended = true;
+        } finally {
+            lock.unlock();
+        }
+        drive();
+    }
+
+    /**
+     * Moves buffered orders into the queue and requests more once they are all in, or waits for room.
+     */
+    private void drive() {
+        while (true) {
+            long wanted;
+            boolean listen = false;
+            lock.lock();
+            try {
+                wanted = next();
+                if (wanted == WAIT_FOR_ROOM && !listening)
+                    listening = listen = true;
+            } finally {
+                lock.unlock();
+            }
+            if (wanted > 0)
+                subscription.request(wanted);
+            else if (wanted == CANCEL)
+                subscription.cancel();
+            else if (listen && orderQueue.whenRoom(this::resume))
+                continue; // Room was made before the queue took the listener, which stays for the next time
+            return;
+        }
+    }
+
+    /**
+     * Called by the queue once there may be room, on the thread of the consumer that made it.
+     */
+    private void resume() {
+        try {
+            lock.lock();
+            try {
+                listening = false;
+            } finally {
+                lock.unlock();
+            }
+            drive();
+        } catch (RuntimeException e) {
+            log.error("Source of {} failed to resume, cancelled", name, e);
+            cancel();
+        }
+    }
+
+    /**
+     * Returns how many orders to request, 0 for none yet, {@link #WAIT_FOR_ROOM} or {@link #CANCEL}.
+     */
+    private long next() {
+        if (done)
+            return 0;
+        if (orderQueue.isShutdown() && (buffered > 0 || !ended)) {
+            log.info("Queue shut down, {} stops taking orders", name);
+            dropBuffered();
+            return CANCEL;
+        }
+        for (; buffered > 0 && offer(buffer[head]); buffered--) {
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            handled.increment();
+        }
+        if (buffered > 0)
+            return waitForRoom();
+        if (ended) {
+            finish();
+            return 0;
+        }
+        if (outstanding > 0)
+            return 0;
+        long wanted = blocking ? Math.min(batchSize, orderQueue.getMaxQueueSize() - orderQueue.currentSize()) : batchSize;
+        if (wanted <= 0)
+            return waitForRoom();
+        unstall();
+        outstanding = wanted;
+        return wanted;
+    }
+
+    /**
+     * Counts the time until the source gets more demand as time producers spent blocked on a full queue.
+     */
+    private long waitForRoom() {
+        if (!stalled) {
+            stalled = true;
+            stalledAt = orderQueue.getMetrics().producerWaitStarted();
+        }
+        return WAIT_FOR_ROOM;
+    }
+
+    private void unstall() {
+        if (stalled) {
+            stalled = false;
+            orderQueue.getMetrics().producerWaitEnded(stalledAt);
+        }
+    }
+
+    /**
+     * Releases the orders still in the buffer, which were never queued, and finishes.
+     */
+    private void dropBuffered() {
+        for (; buffered > 0; buffered--) {
+            buffer[head].release();
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+        }
+        finish();
+    }
+
+    private void finish() {
+        if (done)
+            return;
+        done = true;
+        unstall();
+        if (handled != null)
+            orderQueue.getMetrics().unregisterWorker(name);
+        finished.countDown();
+    }
+
+    /**
+     * Queues the order, or returns false under the block policy if the queue is full. Other policies settle
+     * it right away: orders the queue hands back are processed right here under caller-runs, which also slows
+     * the source down to the pace of a consumer, and dropped otherwise (the queue counts them).
+     */
+    private boolean offer(Order order) {
+        if (blocking)
+            return orderQueue.offerOrder(order);
+        try {
+            EnqueueResult result = orderQueue.addOrder(order);
+            if (result.isQueued())
+                return true;
+            if (result == EnqueueResult.CALLER_RUNS && callerRunsProcessor != null)
+                callerRunsProcessor.processOrder(order);
+            else if (log.isDebugEnabled())
+                log.debug("Dropped {} ({})", order, result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Not queued: the source stops at its next wait
+        }
+        order.release();
+        return true;
+    }
+}
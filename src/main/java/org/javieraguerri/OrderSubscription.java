@@ -0,0 +1,199 @@
+package org.javieraguerri;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Delivers orders from the queue to one subscriber of an {@link OrderPublisher}, as fast as it requests them.
+ * <p>
+ * Cancelling lets the worker deliver the orders already taken from the queue before it stops; it is only
+ * interrupted while it waits on an empty queue, so no order is left half-delivered. If the subscriber throws,
+ * the subscription ends and the orders of the run that are not yet the subscriber's go back in the queue.
+ */
+@Slf4j
+class OrderSubscription extends Worker implements Flow.Subscription {
+    private static final int MAX_RUN = 256;
+
+    private final OrderQueue orderQueue;
+    private final Flow.Subscriber<? super Order> subscriber;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition demandAvailable = lock.newCondition();
+    private long demand = 0;
+    private long invalidRequest = 0;
+    private boolean cancelled = false;
+    private boolean waiting = false;
+
+    OrderSubscription(String name, OrderQueue orderQueue, Flow.Subscriber<? super Order> subscriber,
+                      ExecutorService executor) {
+        super(name);
+        this.orderQueue = orderQueue;
+        this.subscriber = subscriber;
+        subscriber.onSubscribe(this);
+        start(executor);
+    }
+
+    @Override
+    public void request(long n) {
+        lock.lock();
+        try {
+            if (n <= 0)
+                invalidRequest = n;
+            else
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n; // Long.MAX_VALUE means unbounded
+            demandAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        lock.lock();
+        try {
+            cancelled = true;
+            demandAvailable.signal();
+            if (waiting)
+                interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void run() {
+        log.info("Started");
+        OrderQueueMetrics metrics = orderQueue.getMetrics();
+        LongAdder handled = metrics.registerWorker(getName());
+        List<Order> run = new ArrayList<>();
+        long[] logSequences = new long[0];
+        int delivered = 0;
+        try {
+            while (true) {
+                int wanted = awaitDemand();
+                if (wanted == 0)
+                    return;
+                int count = awaitOrders(run, wanted);
+                if (count < 0)
+                    return;
+                if (count == 0) {
+                    subscriber.onComplete();
+                    return;
+                }
+                if (count < wanted)
+                    returnDemand(wanted - count);
+                if (logSequences.length < count)
+                    logSequences = new long[Math.max(count, MAX_RUN)];
+                for (int i = 0; i < count; i++)
+                    logSequences[i] = run.get(i).getLogSequence(); // The subscriber may recycle the order
+                for (delivered = 0; delivered < count; delivered++)
+                    subscriber.onNext(run.get(delivered));
+                OrderPublisher.BatchSubscriber batchSubscriber = subscriber instanceof OrderPublisher.BatchSubscriber b ? b : null;
+                if (batchSubscriber != null)
+                    batchSubscriber.onBatchEnd();
+                if (batchSubscriber != null && !batchSubscriber.completesOrders())
+                    orderQueue.handOver(count); // Still in the log until the subscriber is done with them
+                else
+                    for (int i = 0; i < count; i++)
+                        orderQueue.acknowledge(logSequences[i]);
+                handled.add(count);
+                run.clear();
+            }
+        } catch (InterruptedException e) {
+            log.info("Shut down");
+            subscriber.onError(e);
+        } catch (RuntimeException e) {
+            // Orders a plain subscriber returned from onNext for are its own, but a batch is only done with as a whole
+            int done = subscriber instanceof OrderPublisher.BatchSubscriber ? 0 : Math.min(delivered, run.size());
+            for (int i = 0; i < done; i++)
+                orderQueue.acknowledge(logSequences[i]);
+            int requeued = orderQueue.requeue(run.subList(done, run.size()));
+            log.error("Subscriber failed, {} of its {} orders put back in the queue", requeued, run.size() - done, e);
+        } finally {
+            metrics.unregisterWorker(getName());
+        }
+    }
+
+    /**
+     * Returns the number of orders to take next, or 0 once cancelled.
+     */
+    private int awaitDemand() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (demand == 0 && !cancelled && invalidRequest == 0)
+                demandAvailable.await();
+            if (cancelled)
+                return 0;
+            if (invalidRequest != 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("Requested " + invalidRequest + " orders, must be positive"));
+                return 0;
+            }
+            int wanted = (int) Math.min(demand, MAX_RUN);
+            if (demand != Long.MAX_VALUE)
+                demand -= wanted;
+            waiting = true;
+            return wanted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the demand a run reserved but did not use, as the queue had fewer orders.
+     */
+    private void returnDemand(long unused) {
+        lock.lock();
+        try {
+            if (demand != Long.MAX_VALUE)
+                demand = demand + unused < 0 ? Long.MAX_VALUE : demand + unused;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes up to wanted orders, blocking while the queue is empty.
+     * Returns 0 once it is shut down and empty, and -1 if cancelled while waiting.
+     */
+    private int awaitOrders(List<Order> run, int wanted) throws InterruptedException {
+        try {
+            return orderQueue.drainTo(run, wanted);
+        } catch (InterruptedException e) {
+            if (isCancelled())
+                return -1;
+            throw e;
+        } finally {
+            stopWaiting();
+        }
+    }
+
+    private boolean isCancelled() {
+        lock.lock();
+        try {
+            return cancelled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Clears the interrupt of a cancel that came right after the wait ended, so the orders in hand are delivered.
+     */
+    private void stopWaiting() {
+        lock.lock();
+        try {
+            waiting = false;
+            if (cancelled)
+                Thread.interrupted();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
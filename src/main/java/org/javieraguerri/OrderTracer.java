@@ -0,0 +1,50 @@
+package org.javieraguerri;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breaks down where the orders of one consumer spent their time: waiting in the queue (too few consumers, or
+ * a queue larger than needed) versus being processed (a slow processor). Recording reads the timestamps the
+ * order collected on its way, so it takes no lock; it is only called by the thread of its consumer.
+ * Every sampleRate-th order (0 for none) is logged with the full breakdown.
+ */
+@Slf4j
+public class OrderTracer {
+    private final String worker;
+    private final Timer queueWait;
+    private final Timer serviceTime;
+    private final int sampleRate;
+    private int untilSample;
+
+    OrderTracer(String worker, Timer queueWait, Timer serviceTime, int sampleRate) {
+        this.worker = worker;
+        this.queueWait = queueWait;
+        this.serviceTime = serviceTime;
+        this.sampleRate = sampleRate;
+        this.untilSample = sampleRate;
+    }
+
+    public void processed(Order order) {
+        long enqueuedAt = order.getEnqueuedAtNanos();
+        long dequeuedAt = order.getDequeuedAtNanos();
+        long processedAt = order.getProcessedAtNanos();
+        if (dequeuedAt == 0)
+            return; // Never went through a queue (e.g. run by its producer)
+        if (enqueuedAt != 0)
+            queueWait.record(dequeuedAt - enqueuedAt, TimeUnit.NANOSECONDS);
+        serviceTime.record(processedAt - dequeuedAt, TimeUnit.NANOSECONDS);
+        if (sampleRate > 0 && --untilSample == 0) {
+            untilSample = sampleRate;
+            log.info("Trace {} by {}: {} us to enqueue, {} us queued, {} us processing, {} us in total", order,
+                    worker, micros(enqueuedAt - order.getCreatedAtNanos()), micros(dequeuedAt - enqueuedAt),
+                    micros(processedAt - dequeuedAt), micros(processedAt - order.getCreatedAtNanos()));
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
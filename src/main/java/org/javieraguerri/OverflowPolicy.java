@@ -0,0 +1,31 @@
+package org.javieraguerri;
+
+/**
+ * What {@link OrderQueue#addOrder} does when the queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait for room as long as it takes.
+     */
+    BLOCK,
+    /**
+     * Wait for room up to multithreading.queue.overflow.timeoutMs, then give the order back.
+     */
+    TIMEOUT,
+    /**
+     * Give the order back right away.
+     */
+    REJECT,
+    /**
+     * Make room by dropping the oldest order, or with the priority engine the oldest of the least urgent ones.
+     */
+    DROP_OLDEST,
+    /**
+     * Give the order back for the producer to process it itself, which also slows the producer down.
+     */
+    CALLER_RUNS,
+    /**
+     * Write the order to an overflow file on disk; it is moved into the queue as room frees up.
+     */
+    SPILL
+}
@@ -0,0 +1,24 @@
+package org.javieraguerri;
+
+/**
+ * Controls how fast a worker goes. Called after every order, or after every batch with its size.
+ */
+public interface Pacer {
+
+    void pace(int orders) throws InterruptedException;
+
+    /**
+     * Sleeps for a fixed time after each call, whatever the size of the batch.
+     */
+    static Pacer fixedDelay(long delayMs) {
+        return orders -> Thread.sleep(delayMs);
+    }
+
+    /**
+     * Goes as fast as the queue allows.
+     */
+    static Pacer unpaced() {
+        return orders -> {
+        };
+    }
+}
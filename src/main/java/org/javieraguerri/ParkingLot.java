@@ -0,0 +1,75 @@
+package org.javieraguerri;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free list of parked threads waiting for the same condition.
+ * Wakes up exactly one waiter per signal instead of broadcasting to every sleeper.
+ */
+class ParkingLot {
+    private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Registers the current thread. The caller must re-check its condition before calling {@link #park}.
+     */
+    void enlist() {
+        waiters.offer(Thread.currentThread());
+    }
+
+    /**
+     * Removes the current thread from the waiters.
+     * If it had already been removed by a signal, the signal is handed over to the next waiter so it is not lost.
+     */
+    void leave() {
+        if (!waiters.remove(Thread.currentThread()))
+            unparkOne();
+    }
+
+    void park(Object blocker) throws InterruptedException {
+        LockSupport.park(blocker);
+        if (Thread.interrupted()) {
+            leave();
+            throw new InterruptedException();
+        }
+        waiters.remove(Thread.currentThread());
+    }
+
+    /**
+     * Like {@link #park}, but gives up after the given time. A waiter that gives up must call {@link #unparkOne}
+     * if it does not go back to the condition, in case it was signalled meanwhile.
+     */
+    void parkNanos(Object blocker, long nanos) throws InterruptedException {
+        LockSupport.parkNanos(blocker, nanos);
+        if (Thread.interrupted()) {
+            leave();
+            throw new InterruptedException();
+        }
+        waiters.remove(Thread.currentThread());
+    }
+
+    void unparkOne() {
+        Thread waiter = waiters.poll();
+        if (waiter != null)
+            LockSupport.unpark(waiter);
+    }
+
+    void unpark(int count) {
+        for (int i = 0; i < count; i++) {
+            Thread waiter = waiters.poll();
+            if (waiter == null)
+                return;
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    void unparkAll() {
+        Thread waiter;
+        while ((waiter = waiters.poll()) != null)
+            LockSupport.unpark(waiter);
+    }
+
+    boolean hasWaiters() {
+        return !waiters.isEmpty();
+    }
+}
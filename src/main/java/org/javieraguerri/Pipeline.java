@@ -0,0 +1,221 @@
+package org.javieraguerri;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Processes orders in a chain of {@link OrderStage}s (such as validate, enrich, persist) instead of in one step,
+ * so that only the slowest stage needs more workers.
+ * <p>
+ * The first stage takes its orders from the {@link OrderQueue}, and every other stage from a bounded queue of
+ * its own, filled by the stage before. A stage that falls behind fills its queue and then blocks the workers of
+ * the previous one, so backpressure reaches the producers through every stage. The last stage hands its orders
+ * to the {@link OrderProcessor}, where they count as processed.
+ * <p>
+ * Every stage has its own workers, batch size and queue size (multithreading.pipeline.&lt;stage&gt;.workers,
+ * .batchSize and .queueSize), and the queue metrics of its input tagged with stage=&lt;stage&gt;; the first
+ * stage's are those of the order queue. Orders are FIFO within a stage with a single worker only.
+ * <p>
+ * With an {@link OrderLog}, an order is acknowledged in it once the last stage has processed it, not when the
+ * first stage passes it on, so the orders in the queues between stages are replayed after a crash.
+ */
+@Component
+@ConditionalOnExpression("!'${multithreading.pipeline.stages:}'.isBlank()")
+@Slf4j
+public class Pipeline {
+    private final List<Stage> stages = new ArrayList<>();
+    private final OrderQueue orderQueue;
+    private final OrderProcessor orderProcessor;
+    private final OrderDeduplicator deduplicator;
+    private final ExecutorService workerExecutor;
+    @Getter
+    private final int workerLimit;
+
+    public Pipeline(OrderQueue orderQueue,
+                    OrderProcessor orderProcessor,
+                    Optional<OrderDeduplicator> deduplicator,
+                    Map<String, OrderStage> stageBeans,
+                    MeterRegistry registry,
+                    Environment environment,
+                    @Qualifier("workerExecutor") Optional<ExecutorService> workerExecutor,
+                    @Value("${multithreading.pipeline.stages}") String stageNames,
+                    @Value("${multithreading.pipeline.workerLimit:20}") int workerLimit,
+                    @Value("${multithreading.queue.impl:monitor}") String queueImpl) {
+        this.orderQueue = orderQueue;
+        this.orderProcessor = orderProcessor;
+        this.deduplicator = deduplicator.orElse(null);
+        this.workerExecutor = workerExecutor.orElse(null);
+        this.workerLimit = workerLimit;
+        List<String> names = Arrays.stream(stageNames.split(",")).map(String::trim).toList();
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            OrderStage stage = stageBeans.get(name);
+            if (stage == null)
+                throw new IllegalArgumentException("No OrderStage bean named " + name + ", found " + stageBeans.keySet());
+            String prefix = "multithreading.pipeline." + name + ".";
+            OrderQueue input = i == 0 ? orderQueue
+                    : new OrderQueue(environment.getProperty(prefix + "queueSize", Integer.class, 64), queueImpl,
+                    new OrderQueueMetrics(registry, Tags.of("stage", name), orderQueue.getMetrics().getTraceSampleRate()));
+            stages.add(new Stage(name, stage, input, environment.getProperty(prefix + "batchSize", Integer.class, 1)));
+        }
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            stage.next = i + 1 < stages.size() ? stages.get(i + 1) : null;
+            addWorkers(stage.name, environment.getProperty("multithreading.pipeline." + stage.name + ".workers",
+                    Integer.class, 1));
+        }
+        log.info("Pipeline of {} stages: {}", stages.size(), names);
+    }
+
+    /**
+     * Adds workers to the given stage, up to the worker limit.
+     */
+    public synchronized void addWorkers(String stageName, int count) {
+        Stage stage = getStage(stageName);
+        for (int i = 0; i < count; i++) {
+            if (stage.workers.size() >= workerLimit) {
+                log.warn("Can't add worker to stage {} - reached limit: {}", stageName, workerLimit);
+                return;
+            }
+            stage.workers.add(new StageWorker(stage.name + "-" + stage.nextWorkerId.getAndIncrement(), stage.stage,
+                    orderQueue, stage.input, stage.next == null ? null : stage.next.input, orderProcessor,
+                    stage == stages.get(0) ? deduplicator : null, stage.processed,
+                    stage.batchSize, workerExecutor, worker -> workerFailed(stage, worker)));
+        }
+    }
+
+    /**
+     * Called by the failed worker itself, so it must not wait for the pipeline, which a drain may be holding.
+     * Its orders are back in the stage's queue for the other workers.
+     */
+    private void workerFailed(Stage stage, StageWorker worker) {
+        if (stage.workers.remove(worker))
+            log.warn("{} failed and was removed", worker.getName());
+    }
+
+    /**
+     * Retires the newest worker of the given stage once it has passed on the orders in hand.
+     */
+    public synchronized void removeWorker(String stageName) {
+        Stage stage = getStage(stageName);
+        StageWorker[] current = stage.workers.toArray(new StageWorker[0]);
+        StageWorker newest = current.length == 0 ? null : current[current.length - 1];
+        if (newest != null && stage.workers.remove(newest)) { // Unless it failed meanwhile
+            newest.retire();
+            newest.join();
+        }
+    }
+
+    /**
+     * Lets every stage empty its queue in turn, once the order queue is shut down. Workers still running after
+     * the given time are interrupted, and the orders they had in hand may be lost, unless they are in the order log.
+     * Returns false if the pipeline was not empty by then.
+     */
+    public synchronized boolean drain(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+        for (Stage stage : stages) {
+            if (stage != stages.get(0))
+                stage.input.shutdown(); // The previous stage is done, so nothing else is coming
+            for (StageWorker worker : stage.workers) {
+                if (!worker.join(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    worker.kill();
+                    worker.join();
+                }
+            }
+            stage.workers.clear();
+        }
+        return getQueuedOrders() == 0 && getInFlightOrders() == 0;
+    }
+
+    /**
+     * Orders waiting in the queues between stages.
+     */
+    public int getQueuedOrders() {
+        int queued = 0;
+        for (int i = 1; i < stages.size(); i++)
+            queued += stages.get(i).input.currentSize();
+        return queued;
+    }
+
+    /**
+     * Orders taken by a stage after the first one and not yet passed on.
+     */
+    public int getInFlightOrders() {
+        int inFlight = 0;
+        for (int i = 1; i < stages.size(); i++)
+            inFlight += stages.get(i).input.getInFlightOrders();
+        return inFlight;
+    }
+
+    /**
+     * Orders that expired in the queues between stages.
+     */
+    public int getTotalOrdersExpired() {
+        int expired = 0;
+        for (int i = 1; i < stages.size(); i++)
+            expired += stages.get(i).input.getTotalOrdersExpired();
+        return expired;
+    }
+
+    public List<StageStats> getStats() {
+        List<StageStats> stats = new ArrayList<>(stages.size());
+        for (Stage stage : stages) {
+            OrderQueueMetrics metrics = stage.input.getMetrics();
+            stats.add(new StageStats(stage.name, stage.workers.size(), stage.input.currentSize(), stage.processed.sum(),
+                    metrics.getDequeueRate(), metrics.getConsumerBlockedRate(),
+                    stage.next == null ? 0 : stage.next.input.getMetrics().getProducerBlockedRate(),
+                    metrics.getLatencyPercentile(0.99, TimeUnit.MILLISECONDS)));
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void close() {
+        for (int i = 1; i < stages.size(); i++)
+            stages.get(i).input.getMetrics().close();
+    }
+
+    private Stage getStage(String name) {
+        for (Stage stage : stages)
+            if (stage.name.equals(name))
+                return stage;
+        throw new IllegalArgumentException("Unknown pipeline stage: " + name);
+    }
+
+    private static class Stage {
+        private final String name;
+        private final OrderStage stage;
+        private final OrderQueue input;
+        private final int batchSize;
+        private final List<StageWorker> workers = new CopyOnWriteArrayList<>();
+        private final AtomicInteger nextWorkerId = new AtomicInteger(0);
+        private final LongAdder processed = new LongAdder();
+        private Stage next;
+
+        Stage(String name, OrderStage stage, OrderQueue input, int batchSize) {
+            this.name = name;
+            this.stage = stage;
+            this.input = input;
+            this.batchSize = batchSize;
+        }
+    }
+}
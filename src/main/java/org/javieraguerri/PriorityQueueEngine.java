@@ -0,0 +1,249 @@
+package org.javieraguerri;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the most urgent orders first, with one independently locked FIFO sub-queue per priority level.
+ * <p>
+ * Consumers take from the highest non-empty level, unless the oldest order of some level has been waiting
+ * longer than the aging time: then the longest-waiting of those goes first, so a steady stream of urgent
+ * orders cannot starve the rest. Priorities outside [0, levels) are clamped.
+ * The capacity is shared by all levels, enforced with semaphores as in {@link ShardedQueueEngine}.
+ */
+@Slf4j
+public class PriorityQueueEngine implements OrderQueueEngine {
+    private final OrderShard[] levels;
+    private final long agingNanos;
+    private final Semaphore freeSlots;
+    private final Semaphore queuedOrders = new Semaphore(0);
+    private final OrderQueueMetrics metrics;
+    private volatile boolean shutdown = false;
+
+    public PriorityQueueEngine(int maxQueueSize, int levelCount, long agingMs, OrderQueueMetrics metrics) {
+        if (maxQueueSize < 1)
+            throw new IllegalArgumentException("maxQueueSize must be positive: " + maxQueueSize);
+        if (levelCount < 1)
+            throw new IllegalArgumentException("Priority levels must be positive: " + levelCount);
+        this.levels = new OrderShard[levelCount];
+        for (int i = 0; i < levelCount; i++)
+            levels[i] = new OrderShard();
+        this.agingNanos = TimeUnit.MILLISECONDS.toNanos(agingMs);
+        this.freeSlots = new Semaphore(maxQueueSize);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void put(Order order) throws InterruptedException {
+        acquireFreeSlots(1);
+        levelOf(order).add(order);
+        queuedOrders.release();
+        if (log.isDebugEnabled())
+            log.debug("Produced: {} (Queue size: {})", order, size());
+    }
+
+    @Override
+    public Order take() throws InterruptedException {
+        if (!acquireQueuedOrder())
+            return null;
+        Order order = removeNext();
+        if (order == null)
+            return null; // Only after shutdown
+        freeSlots.release();
+        if (log.isDebugEnabled())
+            log.debug("Consumed: {} (Queue size: {})", order, size());
+        return order;
+    }
+
+    @Override
+    public boolean offer(Order order) {
+        if (!freeSlots.tryAcquire())
+            return false;
+        levelOf(order).add(order);
+        queuedOrders.release();
+        return true;
+    }
+
+    @Override
+    public boolean offer(Order order, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!freeSlots.tryAcquire()) {
+            long waitStartedAt = metrics.producerWaitStarted();
+            try {
+                if (!freeSlots.tryAcquire(timeout, unit))
+                    return false;
+            } finally {
+                metrics.producerWaitEnded(waitStartedAt);
+            }
+        }
+        levelOf(order).add(order);
+        queuedOrders.release();
+        return true;
+    }
+
+    @Override
+    public Order poll() {
+        if (!queuedOrders.tryAcquire())
+            return null;
+        Order order = removeNext();
+        if (order == null)
+            return null;
+        freeSlots.release();
+        return order;
+    }
+
+    /**
+     * Takes the oldest order of the lowest non-empty level: the least urgent one, not the next to be served.
+     */
+    @Override
+    public Order pollOldest() {
+        if (!queuedOrders.tryAcquire())
+            return null;
+        Order order = removeLeastUrgent();
+        if (order == null)
+            return null;
+        freeSlots.release();
+        return order;
+    }
+
+    @Override
+    public int putBatch(List<Order> orders, int fromIndex) throws InterruptedException {
+        int count = acquireFreeSlots(orders.size() - fromIndex);
+        for (int i = fromIndex; i < fromIndex + count; i++)
+            levelOf(orders.get(i)).add(orders.get(i));
+        queuedOrders.release(count);
+        if (log.isDebugEnabled())
+            log.debug("Produced {} orders (Queue size: {})", count, size());
+        return count;
+    }
+
+    @Override
+    public int offerBatch(List<Order> orders, int fromIndex) {
+        int count = ShardedQueueEngine.tryAcquireUpTo(freeSlots, orders.size() - fromIndex);
+        for (int i = fromIndex; i < fromIndex + count; i++)
+            levelOf(orders.get(i)).add(orders.get(i));
+        queuedOrders.release(count);
+        return count;
+    }
+
+    @Override
+    public int drainTo(Collection<Order> target, int maxOrders) throws InterruptedException {
+        if (!acquireQueuedOrder())
+            return 0;
+        int wanted = 1 + ShardedQueueEngine.tryAcquireUpTo(queuedOrders, maxOrders - 1);
+        int count = 0;
+        Order order;
+        while (count < wanted && (order = removeNext()) != null) {
+            target.add(order);
+            count++;
+        }
+        freeSlots.release(count);
+        if (log.isDebugEnabled())
+            log.debug("Consumed {} orders (Queue size: {})", count, size());
+        return count;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (OrderShard level : levels)
+            size += level.size();
+        return size;
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (shutdown)
+            return; // Releasing the permits again would overflow the semaphore
+        shutdown = true;
+        queuedOrders.release(Integer.MAX_VALUE / 2); // Wake up asleep consumers
+    }
+
+    private OrderShard levelOf(Order order) {
+        return levels[Math.max(0, Math.min(levels.length - 1, order.getPriority()))];
+    }
+
+    /**
+     * Takes the next order by priority and aging. Holding an order permit, it only comes back empty-handed
+     * once the queue is shut down and drained.
+     */
+    private Order removeNext() {
+        while (true) {
+            long now = System.nanoTime();
+            OrderShard urgent = null;
+            OrderShard starved = null;
+            for (int i = levels.length - 1; i >= 0; i--) {
+                OrderShard level = levels[i];
+                if (level.size() == 0)
+                    continue;
+                if (urgent == null)
+                    urgent = level;
+                else if (now - level.headEnqueuedAtNanos() > agingNanos
+                        && (starved == null || level.headEnqueuedAtNanos() - starved.headEnqueuedAtNanos() < 0))
+                    starved = level;
+            }
+            if (starved != null && starved.headEnqueuedAtNanos() - urgent.headEnqueuedAtNanos() < 0) {
+                Order order = starved.poll();
+                if (order != null)
+                    return order;
+            }
+            if (urgent != null) {
+                Order order = urgent.poll();
+                if (order != null)
+                    return order;
+            } else if (shutdown) {
+                return null;
+            }
+            Thread.onSpinWait(); // Another consumer took it first, or a producer is about to publish one
+        }
+    }
+
+    private Order removeLeastUrgent() {
+        while (true) {
+            for (OrderShard level : levels) {
+                Order order = level.poll();
+                if (order != null)
+                    return order;
+            }
+            if (shutdown && size() == 0)
+                return null;
+            Thread.onSpinWait(); // A producer holding the level lock is about to publish it
+        }
+    }
+
+    private int acquireFreeSlots(int wanted) throws InterruptedException {
+        if (!freeSlots.tryAcquire()) {
+            long waitStartedAt = metrics.producerWaitStarted();
+            try {
+                log.trace("Found the queue full and goes to sleep");
+                freeSlots.acquire();
+                log.trace("Woke up");
+            } finally {
+                metrics.producerWaitEnded(waitStartedAt);
+            }
+        }
+        return 1 + ShardedQueueEngine.tryAcquireUpTo(freeSlots, wanted - 1);
+    }
+
+    /**
+     * Blocks until an order is queued. Returns false if the queue is empty and shut down.
+     */
+    private boolean acquireQueuedOrder() throws InterruptedException {
+        if (queuedOrders.tryAcquire())
+            return true;
+        if (shutdown && size() == 0)
+            return false;
+        long waitStartedAt = metrics.consumerWaitStarted();
+        try {
+            log.trace("Found the queue empty and goes to sleep");
+            queuedOrders.acquire();
+            log.trace("Woke up");
+        } finally {
+            metrics.consumerWaitEnded(waitStartedAt);
+        }
+        return true;
+    }
+}
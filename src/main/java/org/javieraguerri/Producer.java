@@ -1,42 +1,178 @@
 package org.javieraguerri;
 
-import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
 
-public class Producer {
-    private final OrderQueue orderQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Publishes new orders from an {@link OrderFactory}, as many as requested and paced by a {@link Pacer},
+ * and feeds them to the queue through an {@link OrderSubscriber} of the same name. Orders are created on a
+ * {@link Worker} of its own, which waits while the queue has no room for them. The pause after every batchSize
+ * orders is taken before the next ones, so a batch is never held back by its own pause.
+ */
+@Slf4j
+public class Producer extends Worker implements Flow.Publisher<Order> {
     private final OrderFactory orderFactory;
-    private final Thread producerThread;
-    private final long delayMs;
+    private final int producerId;
+    private final int priority;
+    private final long ttlNanos;
+    private final Pacer pacer;
+    private final int batchSize;
+    private final OrderSubscriber intake;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition demandAvailable = lock.newCondition();
+    private Flow.Subscriber<? super Order> subscriber;
+    private long demand = 0;
+    private boolean cancelled = false;
+
+    public Producer(OrderQueue orderQueue, long delayMs, int batchSize, OrderFactory orderFactory, int threadID,
+                    ExecutorService executor) {
+        this(orderQueue, Pacer.fixedDelay(delayMs), batchSize, orderFactory, threadID, executor);
+    }
 
-    public Producer(OrderQueue orderQueue, long delayMs, OrderFactory orderFactory, int threadID) {
-        this.orderQueue = orderQueue;
-        this.delayMs = delayMs;
+    public Producer(OrderQueue orderQueue, Pacer pacer, int batchSize, OrderFactory orderFactory, int threadID,
+                    ExecutorService executor) {
+        this(orderQueue, pacer, batchSize, 0, 0, orderFactory, null, threadID, executor);
+    }
+
+    /**
+     * Orders get the given priority and, if ttlMs is positive, a deadline ttlMs after they are created.
+     * Orders the queue hands back under the caller-runs overflow policy are processed with callerRunsProcessor,
+     * or dropped if it is null.
+     */
+    public Producer(OrderQueue orderQueue, Pacer pacer, int batchSize, int priority, long ttlMs, OrderFactory orderFactory,
+                    OrderProcessor callerRunsProcessor, int threadID, ExecutorService executor) {
+        super("Producer-" + threadID);
+        this.pacer = pacer;
         this.orderFactory = orderFactory;
-        this.producerThread = new Thread(this::run, "Producer-" + threadID);
-        producerThread.start();
-        System.out.println("Created " + producerThread.getName());
+        this.producerId = threadID;
+        this.priority = priority;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.batchSize = batchSize;
+        this.intake = new OrderSubscriber(getName(), orderQueue, batchSize, callerRunsProcessor);
+        subscribe(intake);
+        start(executor);
+    }
+
+    /**
+     * Orders are numbered per producer, so it serves a single subscriber: the queue.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super Order> subscriber) {
+        lock.lock();
+        try {
+            if (this.subscriber == null) {
+                this.subscriber = subscriber;
+                subscriber.onSubscribe(new Generator());
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        subscriber.onError(new IllegalStateException(getName() + " already has a subscriber"));
     }
 
-    @SneakyThrows
-    public int kill() {
-        producerThread.interrupt();
-        producerThread.join();
-        return orderQueue.getTotalOrdersAdded();
+    public void kill() {
+        interrupt();
+        join();
+        intake.cancel(); // Also if the worker never started
     }
 
-    public void run() {
-        System.out.println(Thread.currentThread().getName() + " started");
-        int i=0;
+    @Override
+    protected void run() {
+        log.info("Started");
+        long sequence = 0;
+        int inBatch = 0;
         try {
             while (true) {
-                synchronized (orderQueue.getLock()) {
-                    Order order = orderFactory.produceOrder(this.hashCode() + "__" + i++);
-                    orderQueue.addOrder(order);
+                if (inBatch == batchSize) {
+                    pacer.pace(batchSize);
+                    inBatch = 0;
                 }
-                Thread.sleep(delayMs);
+                int run = awaitDemand(batchSize - inBatch);
+                if (run == 0)
+                    return;
+                for (int i = 0; i < run; i++)
+                    subscriber.onNext(newOrder(sequence++));
+                inBatch += run;
             }
         } catch (InterruptedException e) {
-            System.out.println(Thread.currentThread().getName() + " shut down");
+            log.info("Shut down");
+        } finally {
+            intake.cancel();
+        }
+    }
+
+    /**
+     * Returns up to max orders of the demand, blocking while there is none, or 0 once cancelled.
+     */
+    private int awaitDemand(int max) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (demand == 0 && !cancelled)
+                demandAvailable.await();
+            if (cancelled)
+                return 0;
+            int run = (int) Math.min(demand, max);
+            if (demand != Long.MAX_VALUE)
+                demand -= run;
+            return run;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Order newOrder(long sequence) {
+        Order order = orderFactory.produceOrder(producerId, sequence).withPriority(priority);
+        if (ttlNanos > 0)
+            order.withDeadline(System.nanoTime() + ttlNanos);
+        return order;
+    }
+
+    /**
+     * Only adds to the demand, so it may be called from any thread, such as a consumer that made room:
+     * the orders are created by the producer's worker.
+     */
+    private class Generator implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " orders, must be positive"));
+                return;
+            }
+            lock.lock();
+            try {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n; // Long.MAX_VALUE means unbounded
+                demandAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                demandAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
         }
     }
 }
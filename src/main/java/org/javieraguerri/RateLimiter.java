@@ -0,0 +1,71 @@
+package org.javieraguerri;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces callers to a target number of permits per second with nanosecond precision.
+ * <p>
+ * Each call reserves the next free slot on a shared timeline with a single CAS and then waits for it, so any
+ * number of threads can share one limiter and the rate does not drift with the work done between calls.
+ * A caller that wakes up late does not lose its slot: the following calls go through without waiting until
+ * the timeline catches up, so the average rate holds even at rates finer than the park granularity.
+ * Up to {@link #BURST_NANOS} worth of unused permits are kept after an idle period.
+ */
+public class RateLimiter implements Pacer {
+    static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final AtomicLong nextFreeSlot = new AtomicLong(System.nanoTime());
+    private volatile double nanosPerPermit;
+
+    public RateLimiter(double permitsPerSecond) {
+        setRate(permitsPerSecond);
+    }
+
+    public void setRate(double permitsPerSecond) {
+        if (!(permitsPerSecond > 0))
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        this.nanosPerPermit = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+    }
+
+    public double getRate() {
+        return TimeUnit.SECONDS.toNanos(1) / nanosPerPermit;
+    }
+
+    /**
+     * Blocks until the given number of permits is available.
+     */
+    public void acquire(int permits) throws InterruptedException {
+        long cost = (long) (permits * nanosPerPermit);
+        long slot;
+        long now;
+        while (true) {
+            now = System.nanoTime();
+            long current = nextFreeSlot.get();
+            slot = Math.max(current, now - BURST_NANOS);
+            if (nextFreeSlot.compareAndSet(current, slot + cost))
+                break;
+        }
+        awaitUntil(slot, now);
+    }
+
+    @Override
+    public void pace(int orders) throws InterruptedException {
+        acquire(orders);
+    }
+
+    private static void awaitUntil(long deadline, long now) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - now) > 0) {
+            if (remaining > SPIN_THRESHOLD_NANOS)
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            else
+                Thread.yield();
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            now = System.nanoTime();
+        }
+    }
+}
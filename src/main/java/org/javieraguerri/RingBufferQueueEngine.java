@@ -0,0 +1,325 @@
+package org.javieraguerri;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free bounded MPMC ring buffer (Vyukov style).
+ * Every slot carries a sequence number telling whether it is ready to be written (seq == pos)
+ * or to be read (seq == pos + 1), so producers and consumers only contend on their own counter.
+ * Threads that find the queue full or empty are parked, and only the opposite side wakes them up, one at a time.
+ */
+@Slf4j
+public class RingBufferQueueEngine implements OrderQueueEngine {
+    private final int capacity;
+    private final Order[] items;
+    private final AtomicLongArray sequences;
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+    private final ParkingLot waitingProducers = new ParkingLot();
+    private final ParkingLot waitingConsumers = new ParkingLot();
+    private final OrderQueueMetrics metrics;
+    private volatile boolean shutdown = false;
+
+    public RingBufferQueueEngine(int maxQueueSize, OrderQueueMetrics metrics) {
+        if (maxQueueSize < 1)
+            throw new IllegalArgumentException("maxQueueSize must be positive: " + maxQueueSize);
+        this.capacity = maxQueueSize;
+        this.metrics = metrics;
+        this.items = new Order[maxQueueSize];
+        this.sequences = new AtomicLongArray(maxQueueSize);
+        for (int i = 0; i < maxQueueSize; i++)
+            sequences.set(i, i);
+    }
+
+    @Override
+    public void put(Order order) throws InterruptedException {
+        if (!tryOffer(order)) {
+            long waitStartedAt = metrics.producerWaitStarted();
+            try {
+                do {
+                    log.trace("Found the queue full and goes to sleep");
+                    waitingProducers.enlist();
+                    if (tryOffer(order)) {
+                        waitingProducers.leave();
+                        break;
+                    }
+                    waitingProducers.park(this);
+                    log.trace("Woke up");
+                } while (!tryOffer(order));
+            } finally {
+                metrics.producerWaitEnded(waitStartedAt);
+            }
+        }
+        if (log.isDebugEnabled())
+            log.debug("Produced: {} (Queue size: {})", order, size());
+        waitingConsumers.unparkOne();
+    }
+
+    @Override
+    public Order take() throws InterruptedException {
+        Order order = tryPoll();
+        if (order == null) {
+            if (shutdown)
+                return null;
+            long waitStartedAt = metrics.consumerWaitStarted();
+            try {
+                while (true) {
+                    log.trace("Found the queue empty and goes to sleep");
+                    waitingConsumers.enlist();
+                    if ((order = tryPoll()) != null || shutdown) {
+                        waitingConsumers.leave();
+                        if (order != null || (order = tryPoll()) != null)
+                            break;
+                        return null;
+                    }
+                    waitingConsumers.park(this);
+                    log.trace("Woke up");
+                    if ((order = tryPoll()) != null)
+                        break;
+                }
+            } finally {
+                metrics.consumerWaitEnded(waitStartedAt);
+            }
+        }
+        if (log.isDebugEnabled())
+            log.debug("Consumed: {} (Queue size: {})", order, size());
+        waitingProducers.unparkOne();
+        return order;
+    }
+
+    @Override
+    public boolean offer(Order order) {
+        if (!tryOffer(order))
+            return false;
+        waitingConsumers.unparkOne();
+        return true;
+    }
+
+    @Override
+    public boolean offer(Order order, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!tryOffer(order)) {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            long waitStartedAt = metrics.producerWaitStarted();
+            try {
+                while (true) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        waitingProducers.unparkOne(); // Pass on a wake-up this producer may have swallowed
+                        return false;
+                    }
+                    log.trace("Found the queue full and goes to sleep");
+                    waitingProducers.enlist();
+                    if (tryOffer(order)) {
+                        waitingProducers.leave();
+                        break;
+                    }
+                    waitingProducers.parkNanos(this, remaining);
+                    log.trace("Woke up");
+                    if (tryOffer(order))
+                        break;
+                }
+            } finally {
+                metrics.producerWaitEnded(waitStartedAt);
+            }
+        }
+        waitingConsumers.unparkOne();
+        return true;
+    }
+
+    @Override
+    public Order poll() {
+        Order order = tryPoll();
+        if (order != null)
+            waitingProducers.unparkOne();
+        return order;
+    }
+
+    @Override
+    public int putBatch(List<Order> orders, int fromIndex) throws InterruptedException {
+        int count = tryOfferBatch(orders, fromIndex);
+        if (count == 0) {
+            long waitStartedAt = metrics.producerWaitStarted();
+            try {
+                do {
+                    log.trace("Found the queue full and goes to sleep");
+                    waitingProducers.enlist();
+                    if ((count = tryOfferBatch(orders, fromIndex)) > 0) {
+                        waitingProducers.leave();
+                        break;
+                    }
+                    waitingProducers.park(this);
+                    log.trace("Woke up");
+                } while ((count = tryOfferBatch(orders, fromIndex)) == 0);
+            } finally {
+                metrics.producerWaitEnded(waitStartedAt);
+            }
+        }
+        if (log.isDebugEnabled())
+            log.debug("Produced {} orders (Queue size: {})", count, size());
+        waitingConsumers.unpark(count);
+        return count;
+    }
+
+    @Override
+    public int offerBatch(List<Order> orders, int fromIndex) {
+        int count = tryOfferBatch(orders, fromIndex);
+        if (count > 0)
+            waitingConsumers.unpark(count);
+        return count;
+    }
+
+    @Override
+    public int drainTo(Collection<Order> target, int maxOrders) throws InterruptedException {
+        int count = tryPollBatch(target, maxOrders);
+        if (count == 0) {
+            if (shutdown)
+                return 0;
+            long waitStartedAt = metrics.consumerWaitStarted();
+            try {
+                while (true) {
+                    log.trace("Found the queue empty and goes to sleep");
+                    waitingConsumers.enlist();
+                    if ((count = tryPollBatch(target, maxOrders)) > 0 || shutdown) {
+                        waitingConsumers.leave();
+                        if (count > 0 || (count = tryPollBatch(target, maxOrders)) > 0)
+                            break;
+                        return 0;
+                    }
+                    waitingConsumers.park(this);
+                    log.trace("Woke up");
+                    if ((count = tryPollBatch(target, maxOrders)) > 0)
+                        break;
+                }
+            } finally {
+                metrics.consumerWaitEnded(waitStartedAt);
+            }
+        }
+        if (log.isDebugEnabled())
+            log.debug("Consumed {} orders (Queue size: {})", count, size());
+        waitingProducers.unpark(count);
+        return count;
+    }
+
+    @Override
+    public int size() {
+        while (true) {
+            long h = head.get();
+            long t = tail.get();
+            if (h == head.get())
+                return (int) Math.max(0, Math.min(capacity, t - h));
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        waitingConsumers.unparkAll();
+    }
+
+    private boolean tryOffer(Order order) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos % capacity);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    order.markEnqueued();
+                    items[index] = order;
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Claims a run of consecutive free slots with a single CAS on the tail.
+     */
+    private int tryOfferBatch(List<Order> orders, int fromIndex) {
+        int wanted = orders.size() - fromIndex;
+        long pos = tail.get();
+        while (true) {
+            int count = 0;
+            while (count < wanted && sequences.get((int) ((pos + count) % capacity)) == pos + count)
+                count++;
+            if (count == 0) {
+                long diff = sequences.get((int) (pos % capacity)) - pos;
+                if (diff < 0)
+                    return 0;
+                pos = tail.get();
+                continue;
+            }
+            if (tail.compareAndSet(pos, pos + count)) {
+                for (int i = 0; i < count; i++) {
+                    int index = (int) ((pos + i) % capacity);
+                    Order order = orders.get(fromIndex + i);
+                    order.markEnqueued();
+                    items[index] = order;
+                    sequences.set(index, pos + i + 1);
+                }
+                return count;
+            }
+            pos = tail.get();
+        }
+    }
+
+    /**
+     * Claims a run of consecutive published slots with a single CAS on the head.
+     */
+    private int tryPollBatch(Collection<Order> target, int maxOrders) {
+        long pos = head.get();
+        while (true) {
+            int count = 0;
+            while (count < maxOrders && sequences.get((int) ((pos + count) % capacity)) == pos + count + 1)
+                count++;
+            if (count == 0) {
+                long diff = sequences.get((int) (pos % capacity)) - (pos + 1);
+                if (diff < 0)
+                    return 0;
+                pos = head.get();
+                continue;
+            }
+            if (head.compareAndSet(pos, pos + count)) {
+                for (int i = 0; i < count; i++) {
+                    int index = (int) ((pos + i) % capacity);
+                    target.add(items[index]);
+                    items[index] = null;
+                    sequences.set(index, pos + i + capacity);
+                }
+                return count;
+            }
+            pos = head.get();
+        }
+    }
+
+    private Order tryPoll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) (pos % capacity);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    Order order = items[index];
+                    items[index] = null;
+                    sequences.set(index, pos + capacity);
+                    return order;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+}
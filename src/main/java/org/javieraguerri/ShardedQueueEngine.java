@@ -0,0 +1,267 @@
+package org.javieraguerri;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits the queue into independently locked shards so that producers and consumers stop contending on one lock.
+ * <p>
+ * The total capacity is still maxQueueSize: producers take a free-slot permit before inserting and consumers
+ * take an order permit before removing, so the two semaphores are the only state shared by every thread, and
+ * they are updated with a CAS rather than under a lock. Each producer thread deals its orders round-robin over
+ * the shards. Each consumer thread has a home shard and steals from the others when it is empty; holding an
+ * order permit guarantees that some shard has an order for it.
+ * <p>
+ * Orders are FIFO within a shard but not across shards.
+ */
+@Slf4j
+public class ShardedQueueEngine implements OrderQueueEngine {
+    private final OrderShard[] shards;
+    private final Semaphore freeSlots;
+    private final Semaphore queuedOrders = new Semaphore(0);
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final ThreadLocal<int[]> producerCursor;
+    private final ThreadLocal<Integer> consumerHome;
+    private final OrderQueueMetrics metrics;
+    private volatile boolean shutdown = false;
+
+    public ShardedQueueEngine(int maxQueueSize, int shardCount, OrderQueueMetrics metrics) {
+        if (maxQueueSize < 1)
+            throw new IllegalArgumentException("maxQueueSize must be positive: " + maxQueueSize);
+        int count = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+        this.shards = new OrderShard[count];
+        for (int i = 0; i < count; i++)
+            shards[i] = new OrderShard();
+        this.freeSlots = new Semaphore(maxQueueSize);
+        this.metrics = metrics;
+        this.producerCursor = ThreadLocal.withInitial(() -> new int[]{nextShard.getAndIncrement()});
+        this.consumerHome = ThreadLocal.withInitial(() -> Math.floorMod(nextShard.getAndIncrement(), shards.length));
+        log.info("Sharded queue with {} shards", count);
+    }
+
+    @Override
+    public void put(Order order) throws InterruptedException {
+        acquireFreeSlots(1);
+        nextProducerShard().add(order);
+        queuedOrders.release();
+        if (log.isDebugEnabled())
+            log.debug("Produced: {} (Queue size: {})", order, size());
+    }
+
+    @Override
+    public Order take() throws InterruptedException {
+        if (!acquireQueuedOrder())
+            return null;
+        Order order = removeFromAnyShard();
+        if (order == null)
+            return null; // Only after shutdown: the permit was one of those that wake consumers up
+        freeSlots.release();
+        if (log.isDebugEnabled())
+            log.debug("Consumed: {} (Queue size: {})", order, size());
+        return order;
+    }
+
+    @Override
+    public boolean offer(Order order) {
+        if (!freeSlots.tryAcquire())
+            return false;
+        nextProducerShard().add(order);
+        queuedOrders.release();
+        return true;
+    }
+
+    @Override
+    public boolean offer(Order order, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!freeSlots.tryAcquire()) {
+            long waitStartedAt = metrics.producerWaitStarted();
+            try {
+                if (!freeSlots.tryAcquire(timeout, unit))
+                    return false;
+            } finally {
+                metrics.producerWaitEnded(waitStartedAt);
+            }
+        }
+        nextProducerShard().add(order);
+        queuedOrders.release();
+        return true;
+    }
+
+    @Override
+    public Order poll() {
+        if (!queuedOrders.tryAcquire())
+            return null;
+        Order order = removeFromAnyShard();
+        if (order == null)
+            return null;
+        freeSlots.release();
+        return order;
+    }
+
+    /**
+     * Takes the order enqueued first across all shards, rather than the head of the home shard.
+     */
+    @Override
+    public Order pollOldest() {
+        if (!queuedOrders.tryAcquire())
+            return null;
+        Order order = removeOldest();
+        if (order == null)
+            return null;
+        freeSlots.release();
+        return order;
+    }
+
+    @Override
+    public int putBatch(List<Order> orders, int fromIndex) throws InterruptedException {
+        int count = acquireFreeSlots(orders.size() - fromIndex);
+        nextProducerShard().addAll(orders, fromIndex, count);
+        queuedOrders.release(count);
+        if (log.isDebugEnabled())
+            log.debug("Produced {} orders (Queue size: {})", count, size());
+        return count;
+    }
+
+    @Override
+    public int offerBatch(List<Order> orders, int fromIndex) {
+        int count = tryAcquireUpTo(freeSlots, orders.size() - fromIndex);
+        if (count == 0)
+            return 0;
+        nextProducerShard().addAll(orders, fromIndex, count);
+        queuedOrders.release(count);
+        return count;
+    }
+
+    @Override
+    public int drainTo(Collection<Order> target, int maxOrders) throws InterruptedException {
+        if (!acquireQueuedOrder())
+            return 0;
+        int wanted = 1 + tryAcquireUpTo(queuedOrders, maxOrders - 1);
+        int count = 0;
+        int home = consumerHome.get();
+        for (int i = 0; i < shards.length && count < wanted; i++)
+            count += shards[(home + i) % shards.length].drainTo(target, wanted - count);
+        while (count < wanted && !shutdown)
+            count += removeAll(target, wanted - count);
+        freeSlots.release(count);
+        if (log.isDebugEnabled())
+            log.debug("Consumed {} orders (Queue size: {})", count, size());
+        return count;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (OrderShard shard : shards)
+            size += shard.size();
+        return size;
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        if (shutdown)
+            return; // Releasing the permits again would overflow the semaphore
+        shutdown = true;
+        queuedOrders.release(Integer.MAX_VALUE / 2); // Wake up asleep consumers
+    }
+
+    /**
+     * Blocks until at least one free slot is available and takes as many as possible, up to wanted.
+     */
+    private int acquireFreeSlots(int wanted) throws InterruptedException {
+        if (!freeSlots.tryAcquire()) {
+            long waitStartedAt = metrics.producerWaitStarted();
+            try {
+                log.trace("Found the queue full and goes to sleep");
+                freeSlots.acquire();
+                log.trace("Woke up");
+            } finally {
+                metrics.producerWaitEnded(waitStartedAt);
+            }
+        }
+        return 1 + tryAcquireUpTo(freeSlots, wanted - 1);
+    }
+
+    /**
+     * Blocks until an order is queued. Returns false if the queue is empty and shut down.
+     */
+    private boolean acquireQueuedOrder() throws InterruptedException {
+        if (queuedOrders.tryAcquire())
+            return true;
+        if (shutdown && size() == 0)
+            return false;
+        long waitStartedAt = metrics.consumerWaitStarted();
+        try {
+            log.trace("Found the queue empty and goes to sleep");
+            queuedOrders.acquire();
+            log.trace("Woke up");
+        } finally {
+            metrics.consumerWaitEnded(waitStartedAt);
+        }
+        return true;
+    }
+
+    static int tryAcquireUpTo(Semaphore semaphore, int wanted) {
+        while (wanted > 0) {
+            int available = Math.min(wanted, semaphore.availablePermits());
+            if (available <= 0)
+                return 0;
+            if (semaphore.tryAcquire(available))
+                return available;
+        }
+        return 0;
+    }
+
+    /**
+     * Takes an order from the home shard, or steals one from the next shards.
+     * Holding an order permit, it only comes back empty-handed once the queue is shut down and drained.
+     */
+    private Order removeFromAnyShard() {
+        int home = consumerHome.get();
+        while (true) {
+            for (int i = 0; i < shards.length; i++) {
+                Order order = shards[(home + i) % shards.length].poll();
+                if (order != null)
+                    return order;
+            }
+            if (shutdown && size() == 0)
+                return null;
+            Thread.onSpinWait(); // A producer holding the shard lock is about to publish it
+        }
+    }
+
+    private Order removeOldest() {
+        while (true) {
+            OrderShard oldest = null;
+            for (OrderShard shard : shards)
+                if (shard.size() > 0 && (oldest == null || shard.headEnqueuedAtNanos() - oldest.headEnqueuedAtNanos() < 0))
+                    oldest = shard;
+            if (oldest != null) {
+                Order order = oldest.poll();
+                if (order != null)
+                    return order;
+            } else if (shutdown) {
+                return null;
+            }
+            Thread.onSpinWait(); // Another consumer took it first, or a producer is about to publish one
+        }
+    }
+
+    private int removeAll(Collection<Order> target, int maxOrders) {
+        int count = 0;
+        for (int i = 0; i < shards.length && count < maxOrders; i++)
+            count += shards[i].drainTo(target, maxOrders - count);
+        if (count == 0)
+            Thread.onSpinWait();
+        return count;
+    }
+
+    private OrderShard nextProducerShard() {
+        int[] cursor = producerCursor.get();
+        return shards[Math.floorMod(cursor[0]++, shards.length)];
+    }
+}
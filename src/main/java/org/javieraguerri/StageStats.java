@@ -0,0 +1,16 @@
+package org.javieraguerri;
+
+/**
+ * Point-in-time view of a pipeline stage. Throughput is in orders per second; idle and blocked rates are seconds
+ * per second summed over its workers, waiting for orders and waiting for room in the next stage respectively.
+ * A stage whose workers are never idle while the previous one is blocked on it is the bottleneck.
+ */
+public record StageStats(String stage,
+                         int workers,
+                         int queueSize,
+                         long ordersProcessed,
+                         double throughput,
+                         double idleRate,
+                         double blockedRate,
+                         double latencyP99Ms) {
+}
@@ -0,0 +1,183 @@
+package org.javieraguerri;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs one {@link OrderStage} of a {@link Pipeline} on the orders of its input queue, batchSize at a time, and
+ * passes them on to the next stage's queue, waiting while it is full. The last stage hands them to the
+ * {@link OrderProcessor} instead, which completes them.
+ */
+@Slf4j
+class StageWorker implements OrderPublisher.BatchSubscriber {
+    @Getter
+    private final String name;
+    private final OrderStage stage;
+    private final OrderQueue orderQueue;
+    private final OrderQueue input;
+    private final OrderQueue output;
+    private final OrderProcessor orderProcessor;
+    private final OrderDeduplicator deduplicator;
+    private final OrderTracer tracer;
+    private final LongAdder processed;
+    private final int batchSize;
+    private final List<Order> batch;
+    private final List<Order> duplicates;
+    private int delivered;
+    private final FailureListener failureListener;
+    private final OrderSubscription subscription;
+    private Flow.Subscription upstream;
+
+    /**
+     * A null output makes it a worker of the last stage. A deduplicator, given to the first stage only,
+     * drops the orders it has already seen. The order queue is the input of the first stage, whose log the
+     * orders are acknowledged in. The failure listener is told when the stage or the processor throws, which
+     * ends the worker.
+     */
+    StageWorker(String name, OrderStage stage, OrderQueue orderQueue, OrderQueue input, OrderQueue output,
+                OrderProcessor orderProcessor, OrderDeduplicator deduplicator, LongAdder processed, int batchSize,
+                ExecutorService executor, FailureListener failureListener) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        this.name = name;
+        this.stage = stage;
+        this.orderQueue = orderQueue;
+        this.input = input;
+        this.output = output;
+        this.orderProcessor = orderProcessor;
+        this.deduplicator = deduplicator;
+        this.tracer = input.getMetrics().registerTracer(name);
+        this.processed = processed;
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+        this.duplicates = new ArrayList<>(batchSize);
+        this.failureListener = failureListener;
+        this.subscription = new OrderPublisher(input, executor).subscribe(this, name);
+    }
+
+    public boolean join(long timeout, TimeUnit unit) throws InterruptedException {
+        return subscription.join(timeout, unit);
+    }
+
+    public void join() {
+        subscription.join();
+    }
+
+    public void kill() {
+        subscription.interrupt();
+    }
+
+    /**
+     * Lets the worker pass on the batch in hand and exit before taking another one.
+     */
+    public void retire() {
+        subscription.cancel();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.upstream = subscription;
+        subscription.request(batchSize);
+    }
+
+    @Override
+    public void onNext(Order order) {
+        delivered++;
+        if (deduplicator != null && !order.isRedelivered() && deduplicator.isDuplicate(order))
+            duplicates.add(order); // Released with the batch, as the subscription may still give it back
+        else
+            batch.add(order);
+    }
+
+    @Override
+    public void onBatchEnd() {
+        int count = batch.size();
+        int requested = delivered;
+        delivered = 0;
+        if (count == 0) {
+            releaseDuplicates();
+            upstream.request(requested);
+            return;
+        }
+        try {
+            if (count == 1)
+                stage.process(batch.get(0));
+            else
+                stage.process(batch);
+            long processedAt = System.nanoTime();
+            for (Order order : batch) {
+                order.markProcessed(processedAt);
+                input.getMetrics().processed(order);
+                tracer.processed(order);
+            }
+            processed.add(count);
+            if (output != null) {
+                output.addAll(batch); // Blocks while the next stage is full, which holds back this one
+            } else {
+                if (count == 1)
+                    orderProcessor.processOrder(batch.get(0));
+                else
+                    orderProcessor.processOrders(batch);
+                for (Order order : batch) {
+                    if (input != orderQueue)
+                        orderQueue.acknowledgeInLog(order); // Handed over by the first stage
+                    order.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warn("Interrupted, {} orders may not have reached the next stage", count);
+            releaseDuplicates();
+            Thread.currentThread().interrupt(); // Stops the subscription at its next wait
+            return;
+        } catch (RuntimeException e) {
+            duplicates.clear(); // The subscription puts them back in the queue with the batch
+            if (failureListener != null)
+                failureListener.failed(this);
+            throw e;
+        } finally {
+            batch.clear();
+        }
+        releaseDuplicates();
+        upstream.request(requested);
+    }
+
+    private void releaseDuplicates() {
+        for (Order order : duplicates) {
+            if (output != null)
+                orderQueue.acknowledgeInLog(order); // Done with here, as it is not passed on
+            order.release();
+        }
+        duplicates.clear();
+    }
+
+    /**
+     * Only the last stage is done with the orders it takes.
+     */
+    @Override
+    public boolean completesOrders() {
+        return output == null;
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (!(throwable instanceof InterruptedException))
+            log.error("Subscription failed", throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        log.info("Stage drained");
+    }
+
+    @FunctionalInterface
+    interface FailureListener {
+        void failed(StageWorker worker);
+    }
+}
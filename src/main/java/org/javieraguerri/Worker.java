@@ -0,0 +1,78 @@
+package org.javieraguerri;
+
+import lombok.Getter;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lifecycle shared by producers and consumers. A worker runs either on its own platform thread
+ * or as a task of a shared {@link ExecutorService} (e.g. one virtual thread per task).
+ */
+@Slf4j
+public abstract class Worker {
+    @Getter
+    private final String name;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private Thread runner;
+    private boolean stopped = false;
+
+    protected Worker(String name) {
+        this.name = name;
+    }
+
+    protected void start(ExecutorService executor) {
+        if (executor == null)
+            new Thread(this::execute, name).start();
+        else
+            executor.execute(this::execute);
+        log.info("Created {}", name);
+    }
+
+    protected abstract void run();
+
+    /**
+     * Interrupts the worker if it is running, or prevents it from starting if it has not been scheduled yet.
+     */
+    public synchronized void interrupt() {
+        stopped = true;
+        if (runner != null)
+            runner.interrupt();
+    }
+
+    @SneakyThrows
+    public void join() {
+        finished.await();
+    }
+
+    /**
+     * Returns false if the worker is still running after the given time.
+     */
+    public boolean join(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    private void execute() {
+        Thread current = Thread.currentThread();
+        String previousName = current.getName();
+        current.setName(name);
+        try {
+            synchronized (this) {
+                if (stopped)
+                    return;
+                runner = current;
+            }
+            run();
+        } finally {
+            synchronized (this) {
+                runner = null;
+                Thread.interrupted(); // Pooled threads must not carry our interrupt to their next task
+            }
+            current.setName(previousName);
+            finished.countDown();
+        }
+    }
+}
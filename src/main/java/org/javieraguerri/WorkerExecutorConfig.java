@@ -0,0 +1,44 @@
+package org.javieraguerri;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shared executor for producers and consumers, selected with multithreading.execution.mode:
+ * thread (default, no executor: every worker owns a platform thread), executor (shared pool of platform threads)
+ * or virtual (one virtual thread per worker).
+ */
+@Configuration
+@Slf4j
+public class WorkerExecutorConfig {
+
+    @Bean(name = "workerExecutor", destroyMethod = "shutdownNow")
+    @ConditionalOnExpression("'${multithreading.execution.mode:thread}' != 'thread'")
+    public ExecutorService workerExecutor(@Value("${multithreading.execution.mode}") String executionMode) {
+        return switch (executionMode.trim().toLowerCase()) {
+            case "executor" -> Executors.newCachedThreadPool();
+            case "virtual" -> newVirtualThreadPerTaskExecutor();
+            default -> throw new IllegalArgumentException("Unknown multithreading.execution.mode: " + executionMode);
+        };
+    }
+
+    /**
+     * The project targets Java 17, so virtual threads are looked up at runtime and we fall back
+     * to a pool of platform threads when the JVM does not provide them.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            log.warn("Virtual threads not available on Java {}, falling back to a shared pool of platform threads",
+                    Runtime.version().feature());
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.javieraguerri;
+
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps producers and consumers on fixed sets of CPUs instead of letting the scheduler move them around.
+ * <p>
+ * Each CPU set (multithreading.placement.cpuSets, by default one per NUMA node, that is per socket) has its own
+ * platform threads, pinned to it when they start. Producer n and consumer n run on the same set, n modulo the
+ * number of sets, so each pair shares a socket and its caches. This replaces the execution mode for producers
+ * and consumers.
+ */
+@Component
+@ConditionalOnProperty(name = "multithreading.placement.enabled", havingValue = "true")
+@Slf4j
+public class WorkerPlacement {
+    @Getter
+    private final List<BitSet> cpuSets;
+    private final List<ExecutorService> executors = new ArrayList<>();
+
+    /**
+     * cpuSets are Linux cpu lists separated by ';', e.g. "0-3;4-7". Empty for one per NUMA node.
+     */
+    public WorkerPlacement(@Value("${multithreading.placement.cpuSets:}") String cpuSets,
+                           @Qualifier("workerExecutor") Optional<ExecutorService> workerExecutor) {
+        this.cpuSets = new ArrayList<>();
+        for (String cpuList : cpuSets.split(";"))
+            if (!cpuList.isBlank())
+                this.cpuSets.add(CpuAffinity.parseCpuList(cpuList));
+        if (this.cpuSets.isEmpty())
+            this.cpuSets.addAll(CpuAffinity.numaNodes());
+        for (int i = 0; i < this.cpuSets.size(); i++)
+            executors.add(newPinnedExecutor(i, this.cpuSets.get(i)));
+        if (workerExecutor.isPresent())
+            log.warn("Placement gives producers and consumers pinned platform threads, instead of multithreading.execution.mode");
+        log.info("Placing workers on CPU sets {}", this.cpuSets.stream().map(CpuAffinity::toCpuList).toList());
+    }
+
+    /**
+     * Executor of the CPU set for the producer or consumer with the given id.
+     */
+    public ExecutorService executorFor(int workerId) {
+        return executors.get(Math.floorMod(workerId, executors.size()));
+    }
+
+    @PreDestroy
+    public void close() {
+        executors.forEach(ExecutorService::shutdownNow);
+    }
+
+    private static ExecutorService newPinnedExecutor(int index, BitSet cpus) {
+        AtomicInteger nextThread = new AtomicInteger(0);
+        return Executors.newCachedThreadPool(task -> new Thread(() -> {
+            if (CpuAffinity.pinCurrentThread(cpus) && log.isDebugEnabled())
+                log.debug("Pinned to CPUs {}", CpuAffinity.toCpuList(cpus));
+            task.run();
+        }, "Placement-" + index + "-" + nextThread.getAndIncrement()));
+    }
+}
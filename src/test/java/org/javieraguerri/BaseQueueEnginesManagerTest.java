@@ -0,0 +1,40 @@
+package org.javieraguerri;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.TestMethodOrder;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Runs the same cases against every queue engine. Each test builds its own {@link Manager} for the engine it is
+ * given, with {@link #start}, instead of one per Spring context.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+public class BaseQueueEnginesManagerTest {
+    protected static final int MAX_QUEUE_SIZE = 10;
+
+    protected Manager manager;
+    private OrderQueueMetrics metrics;
+
+    protected static Stream<String> engines() {
+        return Stream.of("monitor", "ringbuffer", "sharded", "priority");
+    }
+
+    protected void start(String queueImpl) {
+        metrics = new OrderQueueMetrics(new SimpleMeterRegistry(), 0);
+        manager = new Manager(new OrderQueue(MAX_QUEUE_SIZE, queueImpl, 4, 3, 1000, metrics, Optional.empty()),
+                new OrderFactory(), new OrderProcessor(), Optional.empty(), Optional.empty(), Optional.empty(),
+                Optional.empty(), 20, 20, 10000, 10000, 0, 0);
+    }
+
+    @AfterEach
+    void stop() {
+        if (manager != null)
+            manager.shutdown();
+        if (metrics != null)
+            metrics.close();
+    }
+}
@@ -0,0 +1,41 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=20",
+        "multithreading.consumer.limit=8",
+        "multithreading.autoscaler.enabled=true",
+        "multithreading.autoscaler.intervalMs=100",
+        "multithreading.autoscaler.cooldownMs=300",
+        "multithreading.autoscaler.upSamples=2",
+        "multithreading.autoscaler.downSamples=3",
+        "multithreading.autoscaler.consumer.delayMs=50"
+})
+public class ConfigAutoscalerManagerTest extends BaseMultithreadingManagerTest {
+
+    @Test
+    @DisplayName("Consumers follow a burst of orders up to the limit and are retired once it is over")
+    public void consumersFollowBurstTest() {
+        await().atMost(2, TimeUnit.SECONDS).until(() -> manager.getActiveConsumers() == 1);
+
+        IntStream.range(0, 4).forEach(i -> manager.addProducer(10L));
+        await().atMost(10, TimeUnit.SECONDS).until(() -> manager.getActiveConsumers() == 8);
+
+        IntStream.range(0, 4).forEach(i -> manager.removeProducer());
+        await().atMost(15, TimeUnit.SECONDS).until(() -> manager.getActiveConsumers() == 1);
+        assertTrue(manager.getOrderQueueSize() <= 5, "Consumers should only be retired once the queue drained.");
+
+        manager.shutdown();
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+    }
+}
@@ -0,0 +1,33 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConfigBatchedPublishManagerTest extends BaseQueueEnginesManagerTest {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("engines")
+    @DisplayName("Batched publish and drain")
+    public void batchedPublishAndDrainTest(String queueImpl) throws InterruptedException {
+        start(queueImpl);
+        IntStream.range(0, 4).forEach(i -> manager.addProducer(10L, 16));
+        IntStream.range(0, 4).forEach(i -> manager.addConsumer(10L, 8));
+        Thread.sleep(3000);
+        IntStream.range(0, 4).forEach(i -> manager.removeProducer());
+
+        manager.shutdown();
+        int totalOrdersCreated = manager.getTotalOrdersAdded();
+        int totalOrdersProcessed = manager.getTotalOrdersProcessed();
+        assertTrue(totalOrdersCreated > 0, "Orders should have been created.");
+        assertEquals(totalOrdersCreated, totalOrdersProcessed,
+                "All orders created (" + totalOrdersCreated + ") should have been processed (" + totalOrdersProcessed + ").");
+        assertEquals(0, manager.getOrderQueueSize(),
+                "Order queue " + manager.getOrderQueueSize() + " should be empty at the end.");
+    }
+}
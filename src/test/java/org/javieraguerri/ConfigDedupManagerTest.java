@@ -0,0 +1,107 @@
+package org.javieraguerri;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=16",
+        "multithreading.dedup.enabled=true"
+})
+public class ConfigDedupManagerTest extends BaseMultithreadingManagerTest {
+
+    @Autowired
+    private OrderQueue orderQueue;
+
+    @Test
+    @Order(1)
+    @DisplayName("An order delivered twice is processed once, whether or not it was rebuilt from its id")
+    public void duplicatesAreProcessedOnceTest() {
+        int orders = 300;
+        OrderSubscriber intake = new OrderSubscriber("Retrying-0", orderQueue, 4, null);
+        try (SubmissionPublisher<org.javieraguerri.Order> source = new SubmissionPublisher<>()) {
+            source.subscribe(intake);
+            manager.addConsumer(0L, 1);
+            manager.addConsumer(0L, 8);
+            for (int i = 0; i < orders; i++) {
+                source.submit(new org.javieraguerri.Order(7, i));
+                // The retry comes as a new object, every other one with a textual id as replayed orders have
+                source.submit(i % 2 == 0 ? new org.javieraguerri.Order(7, i) : new org.javieraguerri.Order("7__" + i));
+            }
+        }
+        intake.join();
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() + manager.getTotalOrdersDuplicated() == 2 * orders);
+        ManagerStats stats = manager.getStats();
+        manager.shutdown();
+        assertEquals(orders, stats.totalOrdersProcessed());
+        assertEquals(orders, stats.totalOrdersDuplicated());
+        assertEquals(0.5, stats.duplicateRate(), 1e-9);
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("The cache stays within maxEntries, forgetting the oldest ids first, and ids expire after the window")
+    public void boundedCacheTest() throws InterruptedException {
+        OrderDeduplicator deduplicator = new OrderDeduplicator(256, 0, 4, new SimpleMeterRegistry());
+        long memory = deduplicator.getMemoryBytes();
+        for (int i = 0; i < 10_000; i++)
+            assertFalse(deduplicator.isDuplicate(new org.javieraguerri.Order(1, i)));
+        assertEquals(memory, deduplicator.getMemoryBytes());
+        assertTrue(deduplicator.size() <= 256, "size: " + deduplicator.size());
+        assertTrue(deduplicator.isDuplicate(new org.javieraguerri.Order(1, 9_999)));
+        assertFalse(deduplicator.isDuplicate(new org.javieraguerri.Order(1, 0)), "The oldest ids should be forgotten.");
+
+        OrderDeduplicator windowed = new OrderDeduplicator(256, 50, 4, new SimpleMeterRegistry());
+        assertFalse(windowed.isDuplicate(new org.javieraguerri.Order(1, 1)));
+        assertTrue(windowed.isDuplicate(new org.javieraguerri.Order(1, 1)));
+        Thread.sleep(100);
+        assertFalse(windowed.isDuplicate(new org.javieraguerri.Order(1, 1)), "Ids should be forgotten after the window.");
+        manager.shutdown();
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Concurrent checks of the same ids let exactly one of each through")
+    public void concurrentChecksTest() throws Exception {
+        int ids = 20_000;
+        int threads = 8;
+        OrderDeduplicator deduplicator = new OrderDeduplicator(2 * ids, 0, 0, new SimpleMeterRegistry());
+        AtomicInteger firsts = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Future<?>[] futures = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                futures[t] = executor.submit(() -> {
+                    for (int i = 0; i < ids; i++)
+                        if (!deduplicator.isDuplicate(new org.javieraguerri.Order(2, (i + offset * 997) % ids)))
+                            firsts.incrementAndGet();
+                });
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+        manager.shutdown();
+        assertEquals(ids, firsts.get());
+        assertEquals((long) ids * (threads - 1), deduplicator.getHits());
+        assertEquals(ids, deduplicator.size());
+    }
+}
@@ -0,0 +1,107 @@
+package org.javieraguerri;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=64"
+})
+public class ConfigDrainManagerTest extends BaseMultithreadingManagerTest {
+
+    private static final long PROCESSING_MS = 20L;
+
+    @TestConfiguration
+    static class SlowProcessorConfig {
+        @Bean
+        @Primary
+        OrderProcessor slowOrderProcessor() {
+            return new OrderProcessor() {
+                @Override
+                @SneakyThrows
+                public void processOrder(org.javieraguerri.Order order) {
+                    Thread.sleep(PROCESSING_MS);
+                    super.processOrder(order);
+                }
+
+                @Override
+                @SneakyThrows
+                public void processOrders(List<org.javieraguerri.Order> orders) {
+                    Thread.sleep(PROCESSING_MS * orders.size());
+                    super.processOrders(orders);
+                }
+            };
+        }
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Removed consumers finish the orders in hand, so none is lost")
+    public void retiredConsumersFinishTheirOrdersTest() throws InterruptedException {
+        IntStream.range(0, 2).forEach(i -> manager.addProducer(0L));
+        for (int round = 0; round < 5; round++) {
+            IntStream.range(0, 4).forEach(i -> manager.addConsumer(0L, 1 + i % 2 * 4));
+            Thread.sleep(200);
+            IntStream.range(0, 4).forEach(i -> manager.removeConsumer());
+            assertEquals(0, manager.getStats().activeConsumers());
+        }
+        DrainReport report = manager.drain(0, 4);
+
+        assertTrue(report.completed(), "The queue should be empty: " + report);
+        assertEquals(0, report.ordersInFlight());
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed(),
+                "All orders created (" + manager.getTotalOrdersAdded() + ") should have been processed ("
+                        + manager.getTotalOrdersProcessed() + ").");
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("A drain with a deadline returns in time and reports what was left")
+    public void drainWithDeadlineTest() {
+        IntStream.range(0, 2).forEach(i -> manager.addProducer(0L));
+        await().atMost(2, TimeUnit.SECONDS).until(() -> manager.getOrderQueueSize() == 64);
+        manager.addConsumer(0L);
+
+        DrainReport report = manager.drain(200, 0);
+
+        assertFalse(report.completed());
+        assertTrue(report.elapsedMs() < 1000, "The drain should stop at its deadline (" + report.elapsedMs() + " ms).");
+        assertTrue(report.ordersQueued() > 0, "A single slow consumer cannot empty the queue in time: " + report);
+        assertEquals(0, report.stats().activeProducers());
+        assertEquals(0, report.stats().activeConsumers());
+        assertEquals(report.stats().totalOrdersAdded(),
+                report.stats().totalOrdersProcessed() + report.ordersQueued() + report.ordersInFlight(),
+                "Every order added should be processed, queued or in flight: " + report);
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Extra consumers drain a full queue in bounded time")
+    public void boostedDrainTest() {
+        IntStream.range(0, 2).forEach(i -> manager.addProducer(0L));
+        await().atMost(2, TimeUnit.SECONDS).until(() -> manager.getOrderQueueSize() == 64);
+        manager.addConsumer(0L);
+
+        // One consumer alone needs 64 * 20 ms
+        DrainReport report = manager.drain(1000, 8);
+
+        assertTrue(report.completed(), "The boosted consumers should empty the queue in time: " + report);
+        assertTrue(report.ordersProcessed() >= 64);
+        assertEquals(report.stats().totalOrdersAdded(), report.stats().totalOrdersProcessed());
+        assertEquals(0, manager.getActiveConsumers());
+    }
+}
@@ -0,0 +1,65 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=16"
+})
+public class ConfigFailingConsumerManagerTest extends BaseMultithreadingManagerTest {
+
+    @Autowired
+    private AtomicBoolean failed;
+
+    @TestConfiguration
+    static class FailingProcessorConfig {
+        @Bean
+        AtomicBoolean failed() {
+            return new AtomicBoolean();
+        }
+
+        @Bean
+        @Primary
+        OrderProcessor failingOrderProcessor(AtomicBoolean failed) {
+            return new OrderProcessor() {
+                @Override
+                public void processOrders(List<Order> orders) {
+                    if (getTotalOrdersProcessed() > 100 && failed.compareAndSet(false, true))
+                        throw new IllegalStateException("Processing failed");
+                    super.processOrders(orders);
+                }
+            };
+        }
+    }
+
+    @Test
+    @DisplayName("A consumer whose processing fails is removed, and its orders are processed by the others")
+    public void failedConsumerGivesItsOrdersBackTest() {
+        manager.addProducer(0L);
+        manager.addConsumer(1L, 4);
+        manager.addConsumer(1L, 4);
+        await().atMost(3, TimeUnit.SECONDS).until(failed::get);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getActiveConsumers() == 1);
+
+        DrainReport report = manager.drain(5000, 0);
+
+        assertTrue(report.completed(), "The orders of the failed consumer should not stay in flight: " + report);
+        assertEquals(0, report.ordersInFlight());
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed(),
+                "Every order added (" + manager.getTotalOrdersAdded() + ") should have been processed ("
+                        + manager.getTotalOrdersProcessed() + ").");
+    }
+}
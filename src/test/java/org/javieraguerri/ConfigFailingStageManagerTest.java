@@ -0,0 +1,77 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=16",
+        "multithreading.pipeline.stages=validate,enrich",
+        "multithreading.pipeline.enrich.workers=2",
+        "multithreading.pipeline.enrich.batchSize=4"
+})
+public class ConfigFailingStageManagerTest extends BaseMultithreadingManagerTest {
+
+    @Autowired
+    private AtomicBoolean failed;
+    @Autowired
+    private Set<String> enriched;
+    @Autowired
+    private Pipeline pipeline;
+
+    @TestConfiguration
+    static class FailingStageConfig {
+        @Bean
+        AtomicBoolean failed() {
+            return new AtomicBoolean();
+        }
+
+        @Bean
+        Set<String> enriched() {
+            return ConcurrentHashMap.newKeySet();
+        }
+
+        @Bean
+        OrderStage validate() {
+            return order -> {
+            };
+        }
+
+        @Bean
+        OrderStage enrich(AtomicBoolean failed, Set<String> enriched) {
+            return order -> {
+                if (enriched.size() > 100 && failed.compareAndSet(false, true))
+                    throw new IllegalStateException("Enrichment failed");
+                enriched.add(order.getId());
+            };
+        }
+    }
+
+    @Test
+    @DisplayName("A stage worker whose stage fails is removed, and its orders are processed by the others")
+    public void failedStageWorkerGivesItsOrdersBackTest() {
+        manager.addProducer(0L);
+        await().atMost(3, TimeUnit.SECONDS).until(failed::get);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> pipeline.getStats().get(1).workers() == 1);
+
+        DrainReport report = manager.drain(5000, 0);
+
+        assertTrue(report.completed(), "The orders of the failed worker should not stay in flight: " + report);
+        int added = manager.getTotalOrdersAdded();
+        assertEquals(added, manager.getTotalOrdersProcessed(),
+                "Every order added (" + added + ") should have been processed (" + manager.getTotalOrdersProcessed() + ").");
+        assertEquals(added, enriched.size());
+    }
+}
@@ -0,0 +1,135 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=8"
+})
+public class ConfigFlowManagerTest extends BaseMultithreadingManagerTest {
+
+    @Autowired
+    private OrderQueue orderQueue;
+
+    @Test
+    @Order(1)
+    @DisplayName("A non-blocking source feeds the queue through a subscriber, held back by its demand")
+    public void publisherFeedsQueueTest() {
+        int orders = 500;
+        OrderSubscriber intake = new OrderSubscriber("Source-0", orderQueue, 4, null);
+        try (SubmissionPublisher<org.javieraguerri.Order> source = new SubmissionPublisher<>()) {
+            source.subscribe(intake);
+            manager.addConsumer(0L, 3);
+            for (int i = 0; i < orders; i++)
+                source.submit(new org.javieraguerri.Order(0, i));
+        }
+        intake.join();
+
+        await().atMost(5, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() == orders);
+        manager.shutdown();
+        assertEquals(orders, manager.getTotalOrdersAdded());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Subscribers get orders only as fast as they request them, each order once")
+    public void subscribersRespectDemandTest() throws InterruptedException {
+        int wanted = 60;
+        IntStream.range(0, 2).forEach(i -> manager.addProducer(0L, 4));
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        AtomicInteger outstanding = new AtomicInteger();
+        AtomicInteger overDelivered = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(2);
+        OrderPublisher publisher = new OrderPublisher(orderQueue, null);
+        for (int s = 0; s < 2; s++) {
+            publisher.subscribe(new Flow.Subscriber<>() {
+                private Flow.Subscription subscription;
+                private int count;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    outstanding.addAndGet(5);
+                    subscription.request(5);
+                }
+
+                @Override
+                public void onNext(org.javieraguerri.Order order) {
+                    if (outstanding.decrementAndGet() < 0)
+                        overDelivered.incrementAndGet();
+                    received.add(order.getId());
+                    if (++count == wanted / 2) {
+                        subscription.cancel();
+                        done.countDown();
+                    } else if (count % 5 == 0) {
+                        outstanding.addAndGet(5);
+                        subscription.request(5);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS), () -> "received " + received.size() + " added " + manager.getTotalOrdersAdded() + " queued " + manager.getOrderQueueSize());
+        assertEquals(0, overDelivered.get(), "No subscriber should get more than it requested.");
+        assertEquals(wanted, received.size(), "Every order should be delivered once.");
+        assertEquals(0, orderQueue.getInFlightOrders());
+        manager.shutdown();
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Subscribers are completed once the queue is shut down and empty")
+    public void subscribersCompleteOnShutdownTest() throws InterruptedException {
+        CountDownLatch completed = new CountDownLatch(1);
+        new OrderPublisher(orderQueue, null).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(org.javieraguerri.Order order) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+        manager.addProducer(1L);
+        Thread.sleep(500);
+        manager.shutdown();
+
+        assertTrue(completed.await(2, TimeUnit.SECONDS), "The subscriber should be completed.");
+        assertTrue(manager.getTotalOrdersAdded() > 0);
+        assertEquals(0, manager.getOrderQueueSize());
+    }
+}
@@ -0,0 +1,135 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "multithreading.maxQueueSize=16",
+        "multithreading.dedup.enabled=true"
+})
+public class ConfigIngestionManagerTest extends BaseMultithreadingManagerTest {
+
+    private static final int CLIENT_ID = 1000;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    @Order(1)
+    @DisplayName("Batches posted over HTTP are queued and processed")
+    public void bulkIngestionTest() {
+        manager.addConsumer(0L, 8);
+        int sent = 0;
+        for (int batch = 0; batch < 20; batch++) {
+            int size = 1 + batch % 8;
+            ResponseEntity<IngestResult> response = post(sent, size);
+            assertTrue(response.getStatusCode().is2xxSuccessful() || response.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS);
+            sent += response.getBody().accepted();
+        }
+        int accepted = sent;
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() == accepted);
+        manager.shutdown();
+        assertEquals(accepted, manager.getTotalOrdersAdded());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("A full queue answers 429 with the credits left, and a client that resends the rest loses nothing")
+    public void backpressureTest() {
+        ResponseEntity<IngestResult> response = post(0, 40);
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+        assertEquals(new IngestResult(16, 24, 0), response.getBody());
+        assertEquals("0", response.getHeaders().getFirst(IngestionController.CREDITS_HEADER));
+        assertEquals(24, manager.getTotalOrders(EnqueueResult.REJECTED));
+
+        manager.addConsumer(1L);
+        int sent = 16;
+        while (sent < 40) {
+            response = post(sent, 40 - sent);
+            sent += response.getBody().accepted();
+            if (response.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS)
+                await().atMost(1, TimeUnit.SECONDS).until(() -> manager.getOrderQueueSize() < 16);
+        }
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() == 40);
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        manager.shutdown();
+        assertEquals(40, manager.getTotalOrdersAdded());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Bodies that are not whole records are refused")
+    public void malformedBodyTest() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        ResponseEntity<IngestResult> response = restTemplate.postForEntity("/orders",
+                new HttpEntity<>(new byte[IngestionController.RECORD_BYTES + 1], headers), IngestResult.class);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals(0, manager.getTotalOrdersAdded());
+        manager.shutdown();
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("Once the manager is drained, batches are refused with 503 instead of queued for nobody")
+    public void ingestionAfterDrainTest() {
+        manager.addConsumer(0L);
+        assertEquals(HttpStatus.ACCEPTED, post(0, 4).getStatusCode());
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() == 4);
+        manager.drain(1000, 0);
+
+        ResponseEntity<IngestResult> response = post(4, 4);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertEquals(new IngestResult(0, 4, 16), response.getBody());
+        assertEquals(4, manager.getTotalOrdersAdded(), "No order should have been queued after the drain.");
+        assertEquals(0, manager.getOrderQueueSize());
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("Client 0 and producer 0 number their orders alike, but neither is taken for a duplicate of the other")
+    public void clientIdsApartFromProducerIdsTest() {
+        manager.addProducer(5L); // Producer 0
+        manager.addConsumer(0L);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() >= 20);
+        int sent = 0;
+        while (sent < 20)
+            sent += post(0, sent, 20 - sent).getBody().accepted();
+        manager.shutdown();
+
+        assertEquals(0, manager.getTotalOrdersDuplicated(), "No order should have been dropped as a duplicate.");
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+        assertTrue(manager.getTotalOrdersProcessed() >= 40);
+    }
+
+    private ResponseEntity<IngestResult> post(int fromSequence, int count) {
+        return post(CLIENT_ID, fromSequence, count);
+    }
+
+    private ResponseEntity<IngestResult> post(int clientId, int fromSequence, int count) {
+        ByteBuffer body = ByteBuffer.allocate(count * IngestionController.RECORD_BYTES);
+        for (int i = 0; i < count; i++)
+            body.putInt(clientId).putLong(fromSequence + i);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        return restTemplate.postForEntity("/orders", new HttpEntity<>(body.array(), headers), IngestResult.class);
+    }
+}
@@ -0,0 +1,86 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = "multithreading.maxQueueSize=16")
+public class ConfigLoadProfileManagerTest extends BaseMultithreadingManagerTest {
+
+    @Autowired
+    private OrderQueue orderQueue;
+
+    private void assertAllProcessed() {
+        assertEquals(0, manager.getActiveProducers(), "Producers should have terminated after shutdown.");
+        assertEquals(0, manager.getActiveConsumers(), "Consumers should have terminated after shutdown.");
+        int totalOrdersCreated = manager.getTotalOrdersAdded();
+        int totalOrdersProcessed = manager.getTotalOrdersProcessed();
+        assertEquals(totalOrdersCreated, totalOrdersProcessed,
+                "All orders created (" + totalOrdersCreated + ") should have been processed (" + totalOrdersProcessed + ").");
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Ramp: throughput follows the producers until the consumers are saturated")
+    public void rampTest() {
+        List<LoadProfile.PhaseResult> results = LoadProfile.ramp(3, 2, 10L, 500L).run(manager, orderQueue);
+
+        assertEquals(3, results.size());
+        results.forEach(result -> assertTrue(result.processed() > 0, result.toString()));
+        assertTrue(results.get(2).throughput() > results.get(0).throughput(),
+                "Three producers should get more through than one: " + results);
+        assertAllProcessed();
+        assertTrue(Files.exists(Path.of("target", "load-profile-ramp.csv")), "Results should have been written.");
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Burst: producers alone fill the queue and consumers alone empty it")
+    public void burstTest() {
+        List<LoadProfile.PhaseResult> results = LoadProfile.burst(4, 2, 10L, 400L).run(manager, orderQueue);
+
+        assertEquals(4, results.size());
+        for (int i = 0; i < results.size(); i += 2) {
+            assertEquals(0, results.get(i).processed(), "Nothing should be processed without consumers.");
+            assertEquals(16, results.get(i).queueSize(), "Producers should have filled the queue.");
+            assertEquals(16, results.get(i + 1).processed(), "Consumers should have emptied the queue.");
+            assertEquals(0, results.get(i + 1).queueSize());
+        }
+        assertAllProcessed();
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("README case 6 scaled from a script into timed phases")
+    public void scriptedBurstTest() {
+        OrderScript script = OrderScript.parse("P, P, P, P, P, P, P, P, C, C, C, C, C, C, C, C");
+        LoadProfile profile = LoadProfile.fromScript("case6", script, 10L, 50L);
+        assertEquals(List.of(new LoadProfile.Phase("1-8P", 8, 0, 10L, 10L, 400L),
+                new LoadProfile.Phase("2-8C", 0, 8, 10L, 10L, 400L)), profile.getPhases());
+
+        List<LoadProfile.PhaseResult> results = profile.run(manager, orderQueue);
+        assertEquals(16, results.get(0).queueSize());
+        assertEquals(0, results.get(1).queueSize());
+        assertAllProcessed();
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("Soak: steady producers and consumers keep the same throughput in every phase")
+    public void soakTest() {
+        List<LoadProfile.PhaseResult> results = LoadProfile.soak(2, 2, 10L, 1200L, 300L).run(manager, orderQueue);
+
+        assertEquals(4, results.size());
+        results.forEach(result -> assertTrue(result.processed() > 0 && result.queueSize() < 16, result.toString()));
+        assertAllProcessed();
+    }
+}
@@ -0,0 +1,74 @@
+package org.javieraguerri;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConfigMetricsManagerTest extends BaseMultithreadingManagerTest {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private OrderQueueMetrics metrics;
+
+    @Test
+    @DisplayName("Queue rates, blocked time, latency and per-worker counters are published")
+    public void metricsArePublishedTest() {
+        manager.addProducer(10L);
+        manager.addProducer(10L);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> metrics.getProducerBlockedRate() > 0);
+        manager.addConsumer(10L);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> metrics.getDequeueRate() > 0);
+
+        assertNotNull(meterRegistry.find("orders.worker.handled").tag("worker", "Producer-0").functionCounter());
+        assertNotNull(meterRegistry.find("orders.worker.handled").tag("worker", "Consumer-0").functionCounter());
+        assertTrue(meterRegistry.get("orders.producer.blocked").functionCounter().count() > 0);
+        assertTrue(meterRegistry.get("orders.latency").timer().count() > 0);
+
+        manager.shutdown();
+        assertEquals(manager.getTotalOrdersAdded(), (int) meterRegistry.get("orders.enqueued").functionCounter().count());
+        assertEquals(manager.getTotalOrdersProcessed(), (int) meterRegistry.get("orders.dequeued").functionCounter().count());
+        assertEquals(manager.getTotalOrdersProcessed(), (int) meterRegistry.get("orders.latency").timer().count());
+        assertEquals(0, meterRegistry.find("orders.worker.handled").functionCounters().size(),
+                "Per-worker counters should be removed once the workers are gone.");
+    }
+
+    @Test
+    @DisplayName("Blocked time never goes backwards while waits start and end")
+    public void blockedTimeIsMonotonicTest() throws InterruptedException {
+        FunctionCounter blocked = meterRegistry.get("orders.producer.blocked").functionCounter();
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> waiters = IntStream.range(0, 4)
+                .mapToObj(i -> new Thread(() -> {
+                    while (running.get())
+                        metrics.producerWaitEnded(metrics.producerWaitStarted());
+                }))
+                .toList();
+        waiters.forEach(Thread::start);
+        try {
+            double last = blocked.count();
+            for (int i = 0; i < 200_000; i++) {
+                double current = blocked.count();
+                assertTrue(current >= last, "Blocked time went back from " + last + " to " + current + " s.");
+                last = current;
+            }
+        } finally {
+            running.set(false);
+            for (Thread waiter : waiters)
+                waiter.join();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.javieraguerri;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=16",
+        "multithreading.queue.wal.dir=" + ConfigOrderLogManagerTest.DIR,
+        "multithreading.queue.wal.segmentSize=" + ConfigOrderLogManagerTest.SEGMENT_SIZE,
+        "multithreading.queue.wal.flushIntervalMs=10"
+})
+public class ConfigOrderLogManagerTest extends BaseMultithreadingManagerTest {
+    static final String DIR = "target/order-log-test";
+    static final int SEGMENT_SIZE = 4096;
+
+    @Autowired
+    private OrderLog orderLog;
+
+    @Autowired
+    private OrderQueueMetrics metrics;
+
+    @BeforeAll
+    static void cleanLog() throws IOException {
+        FileSystemUtils.deleteRecursively(Path.of(DIR));
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Queued orders that were not processed survive a restart, and are not replayed once processed")
+    public void unprocessedOrdersAreReplayedTest() throws Exception {
+        IntStream.range(0, 2).forEach(i -> manager.addProducer(0L));
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getOrderQueueSize() == 16);
+        manager.shutdown(); // No consumers: the queued orders are lost from memory
+        int pending = manager.getTotalOrdersAdded();
+        orderLog.close();
+
+        OrderLog reopened = new OrderLog(DIR, SEGMENT_SIZE, 10);
+        assertEquals(pending, reopened.getPendingOrders());
+        OrderQueue queue = new OrderQueue(16, "monitor", 0, 3, 1000, metrics, Optional.of(reopened));
+        await().atMost(3, TimeUnit.SECONDS).until(() -> queue.currentSize() == pending);
+        Set<String> ids = new HashSet<>();
+        for (org.javieraguerri.Order order = queue.pollOrder(); order != null; order = queue.pollOrder()) {
+            ids.add(order.getId());
+            queue.acknowledge(order);
+        }
+        assertEquals(pending, ids.size());
+        queue.shutdown();
+        reopened.close();
+
+        OrderLog afterProcessing = new OrderLog(DIR, SEGMENT_SIZE, 10);
+        assertEquals(0, afterProcessing.getPendingOrders());
+        afterProcessing.close();
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Processed orders are committed and old segments are deleted")
+    public void committedSegmentsAreDeletedTest() throws Exception {
+        IntStream.range(0, 2).forEach(i -> manager.addProducer(0L, i + 1));
+        IntStream.range(0, 2).forEach(i -> manager.addConsumer(0L, i + 1));
+        Thread.sleep(1000);
+        manager.shutdown();
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+        assertTrue(manager.getTotalOrdersAdded() > 0);
+        orderLog.close();
+
+        try (Stream<Path> files = Files.list(Path.of(DIR))) {
+            assertEquals(1, files.filter(f -> f.getFileName().toString().endsWith(".wal")).count(),
+                    "Only the active segment should be left.");
+        }
+        OrderLog reopened = new OrderLog(DIR, SEGMENT_SIZE, 10);
+        assertEquals(0, reopened.getPendingOrders());
+        reopened.close();
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Orders replayed after a restart are not taken for duplicates of the new run's orders")
+    public void replayedOrdersAreNotDuplicatesTest() throws Exception {
+        manager.addProducer(0L);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getOrderQueueSize() == 16);
+        manager.shutdown();
+        int pending = manager.getTotalOrdersAdded();
+        orderLog.close();
+
+        OrderLog reopened = new OrderLog(DIR, SEGMENT_SIZE, 10);
+        OrderQueue queue = new OrderQueue(16, "monitor", 0, 3, 1000, metrics, Optional.of(reopened));
+        OrderProcessor orderProcessor = new OrderProcessor();
+        Manager restarted = new Manager(queue, new OrderFactory(), orderProcessor, Optional.empty(),
+                Optional.of(new OrderDeduplicator(10_000, 0, 0, new SimpleMeterRegistry())), Optional.empty(),
+                Optional.empty(), 20, 20, 10000, 10000, 0, 0);
+        restarted.addProducer(0L); // Producer 0 again, numbering its orders from the start
+        restarted.addConsumer(0L);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> orderProcessor.getTotalOrdersProcessed() >= 2 * pending);
+        restarted.shutdown();
+        assertEquals(0, restarted.getTotalOrdersDuplicated(), "No order should have been dropped as a duplicate.");
+        assertEquals(restarted.getTotalOrdersAdded(), restarted.getTotalOrdersProcessed());
+        reopened.close();
+
+        OrderLog afterProcessing = new OrderLog(DIR, SEGMENT_SIZE, 10);
+        assertEquals(0, afterProcessing.getPendingOrders());
+        afterProcessing.close();
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("A failed flush fails the producers waiting for it, and the log takes no more orders")
+    public void failedFlushTest() throws Exception {
+        orderLog.close();
+        AtomicBoolean failing = new AtomicBoolean();
+        OrderLog failingLog = new OrderLog(DIR, SEGMENT_SIZE, 10) {
+            @Override
+            void flush() throws IOException {
+                if (failing.get())
+                    throw new IOException("Disk gone");
+                super.flush();
+            }
+        };
+        failingLog.awaitDurable(failingLog.append(new org.javieraguerri.Order(0, 0)));
+
+        failing.set(true);
+        long sequence = failingLog.append(new org.javieraguerri.Order(0, 1));
+        IllegalStateException failure = assertTimeoutPreemptively(Duration.ofSeconds(3),
+                () -> assertThrows(IllegalStateException.class, () -> failingLog.awaitDurable(sequence)));
+        assertEquals("Disk gone", failure.getCause().getMessage());
+        assertThrows(IllegalStateException.class, () -> failingLog.append(new org.javieraguerri.Order(0, 2)));
+        failingLog.close();
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("Recovered segments are kept until the replay is done, even once their orders are acknowledged")
+    public void recoveredSegmentsOutliveReplayTest() throws Exception {
+        orderLog.close();
+        FileSystemUtils.deleteRecursively(Path.of(DIR));
+        OrderLog first = new OrderLog(DIR, SEGMENT_SIZE, 10);
+        long last = 0;
+        for (int i = 0; i < 500; i++)
+            last = first.append(new org.javieraguerri.Order(0, i));
+        first.awaitDurable(last);
+        first.close();
+
+        OrderLog reopened = new OrderLog(DIR, SEGMENT_SIZE, 10);
+        assertEquals(500, reopened.getPendingOrders());
+        long lastSequence = last;
+        for (long sequence = 1; sequence <= lastSequence; sequence++)
+            reopened.acknowledge(sequence); // Committing every recovered segment before the replay reads them
+        await().atMost(3, TimeUnit.SECONDS).until(() -> reopened.getCommittedSequence() == lastSequence);
+        Thread.sleep(100); // A few checkpoints
+        assertTrue(segmentFiles() > 2, "The recovered segments should be kept for the replay.");
+
+        List<String> replayed = new ArrayList<>();
+        reopened.replay(order -> replayed.add(order.getId()));
+        assertEquals(500, replayed.size());
+        assertEquals(1, segmentFiles(), "Only the active segment should be left once the replay is done.");
+        reopened.close();
+    }
+
+    private static long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Path.of(DIR))) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".wal")).count();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=4",
+        "multithreading.queue.overflow.policy=caller_runs"
+})
+public class ConfigOverflowManagerTest extends BaseMultithreadingManagerTest {
+    private static final String DIR = "target/overflow-test";
+
+    @Autowired
+    private OrderQueueMetrics metrics;
+
+    @BeforeAll
+    static void cleanSpill() throws IOException {
+        FileSystemUtils.deleteRecursively(Path.of(DIR));
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("2. Force the upper boundary (queue full) - reject and timeout give the order back")
+    public void rejectAndTimeoutTest() throws InterruptedException {
+        OrderQueue rejecting = queue("reject", 2);
+        assertEquals(EnqueueResult.ACCEPTED, rejecting.addOrder(new org.javieraguerri.Order(0, 0)));
+        assertEquals(EnqueueResult.ACCEPTED, rejecting.addOrder(new org.javieraguerri.Order(0, 1)));
+        assertEquals(EnqueueResult.REJECTED, rejecting.addOrder(new org.javieraguerri.Order(0, 2)));
+        assertEquals(1, rejecting.getTotalOrders(EnqueueResult.REJECTED));
+        assertEquals(2, rejecting.getTotalOrdersAdded());
+        rejecting.shutdown();
+
+        for (String impl : List.of("monitor", "ringbuffer", "sharded", "priority")) {
+            OrderQueue timingOut = queue("timeout", impl, 2);
+            for (int i = 0; i < 2; i++)
+                assertEquals(EnqueueResult.ACCEPTED, timingOut.addOrder(new org.javieraguerri.Order(0, i)));
+            long startedAt = System.nanoTime();
+            assertEquals(EnqueueResult.TIMED_OUT, timingOut.addOrder(new org.javieraguerri.Order(0, 2)), impl);
+            long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+            assertTrue(waitedMs >= 100 && waitedMs < 1000, impl + " should wait for the timeout (" + waitedMs + " ms).");
+            assertEquals(1, timingOut.getTotalOrders(EnqueueResult.TIMED_OUT));
+            timingOut.shutdown();
+        }
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Drop-oldest makes room by dropping the head of the queue")
+    public void dropOldestTest() throws InterruptedException {
+        OrderQueue queue = queue("drop_oldest", 2);
+        for (int i = 0; i < 2; i++)
+            assertEquals(EnqueueResult.ACCEPTED, queue.addOrder(new org.javieraguerri.Order(0, i)));
+        assertEquals(EnqueueResult.DROPPED_OLDEST, queue.addOrder(new org.javieraguerri.Order(0, 2)));
+        assertEquals(EnqueueResult.DROPPED_OLDEST, queue.addOrder(new org.javieraguerri.Order(0, 3)));
+
+        assertEquals("0__2", queue.pollOrder().getId());
+        assertEquals("0__3", queue.pollOrder().getId());
+        assertNull(queue.pollOrder());
+        assertEquals(2, queue.getTotalOrders(EnqueueResult.DROPPED_OLDEST));
+        assertEquals(4, queue.getTotalOrdersAdded());
+        queue.shutdown();
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Drop-oldest drops the least urgent order with the priority engine and the oldest across shards")
+    public void dropOldestByEngineTest() throws InterruptedException {
+        OrderQueue prioritized = queue("drop_oldest", "priority", 3);
+        assertEquals(EnqueueResult.ACCEPTED, prioritized.addOrder(new org.javieraguerri.Order(0, 0).withPriority(2)));
+        assertEquals(EnqueueResult.ACCEPTED, prioritized.addOrder(new org.javieraguerri.Order(0, 1).withPriority(1)));
+        assertEquals(EnqueueResult.ACCEPTED, prioritized.addOrder(new org.javieraguerri.Order(0, 2).withPriority(1)));
+        assertEquals(EnqueueResult.DROPPED_OLDEST, prioritized.addOrder(new org.javieraguerri.Order(0, 3).withPriority(2)));
+
+        assertEquals("0__0", prioritized.pollOrder().getId(), "The most urgent order should be kept.");
+        assertEquals("0__3", prioritized.pollOrder().getId());
+        assertEquals("0__2", prioritized.pollOrder().getId(), "The oldest of the least urgent orders should be dropped.");
+        assertNull(prioritized.pollOrder());
+        prioritized.shutdown();
+
+        OrderQueue sharded = queue("drop_oldest", "sharded", 4);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(EnqueueResult.ACCEPTED, sharded.addOrder(new org.javieraguerri.Order(0, i)));
+            Thread.sleep(1); // Distinct enqueue times
+        }
+        assertEquals(EnqueueResult.DROPPED_OLDEST, sharded.addOrder(new org.javieraguerri.Order(0, 4)));
+        assertEquals(EnqueueResult.DROPPED_OLDEST, sharded.addOrder(new org.javieraguerri.Order(0, 5)));
+
+        List<String> ids = new ArrayList<>();
+        for (org.javieraguerri.Order order; (order = sharded.pollOrder()) != null; )
+            ids.add(order.getId());
+        assertEquals(4, ids.size());
+        assertTrue(ids.containsAll(List.of("0__2", "0__3", "0__4", "0__5")), "The two oldest orders should be dropped: " + ids);
+        sharded.shutdown();
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("Spilled orders are queued again in order as room frees up")
+    public void spillTest() throws InterruptedException {
+        OrderQueue queue = queue("spill", 2);
+        for (int i = 0; i < 2; i++)
+            assertEquals(EnqueueResult.ACCEPTED, queue.addOrder(new org.javieraguerri.Order(0, i)));
+        for (int i = 2; i < 6; i++)
+            assertEquals(EnqueueResult.SPILLED, queue.addOrder(new org.javieraguerri.Order(0, i)));
+        assertEquals(4, queue.getTotalOrders(EnqueueResult.SPILLED));
+
+        List<String> ids = new ArrayList<>();
+        while (ids.size() < 6) {
+            org.javieraguerri.Order order = queue.removeOrder();
+            ids.add(order.getId());
+        }
+        assertEquals(List.of("0__0", "0__1", "0__2", "0__3", "0__4", "0__5"), ids);
+        assertEquals(0, queue.getSpilledOrders());
+        await().atMost(1, TimeUnit.SECONDS).until(() -> queue.getTotalOrdersAdded() == 6);
+        queue.shutdown();
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("Caller-runs has producers process what does not fit, and every order is processed once")
+    public void callerRunsTest() throws InterruptedException {
+        IntStream.range(0, 4).forEach(i -> manager.addProducer(1L, 1 + i % 2 * 3));
+        manager.addConsumer(10L);
+        Thread.sleep(2000);
+        manager.shutdown();
+
+        int added = manager.getTotalOrdersAdded();
+        int ranByProducers = manager.getTotalOrders(EnqueueResult.CALLER_RUNS);
+        assertTrue(ranByProducers > 0, "Producers should have processed the orders that did not fit.");
+        assertEquals(added + ranByProducers, manager.getTotalOrdersProcessed(),
+                "Orders added (" + added + ") and run by producers (" + ranByProducers + ") should all be processed.");
+        assertEquals(0, manager.getOrderQueueSize());
+        assertEquals(ranByProducers, manager.getStats().overflows().get(EnqueueResult.CALLER_RUNS));
+    }
+
+    private OrderQueue queue(String policy, int maxQueueSize) {
+        return queue(policy, "monitor", maxQueueSize);
+    }
+
+    private OrderQueue queue(String policy, String queueImpl, int maxQueueSize) {
+        return new OrderQueue(maxQueueSize, queueImpl, 0, 3, 1000, policy, 100, DIR + "/orders.spill",
+                metrics, Optional.empty());
+    }
+}
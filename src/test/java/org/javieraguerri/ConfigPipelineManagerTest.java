@@ -0,0 +1,178 @@
+package org.javieraguerri;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.system.CapturedOutput;
+import org.springframework.boot.test.system.OutputCaptureExtension;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpStatus;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "multithreading.maxQueueSize=16",
+        "multithreading.pipeline.stages=validate,enrich,persist",
+        "multithreading.pipeline.enrich.queueSize=8",
+        "multithreading.pipeline.persist.batchSize=8",
+        "multithreading.trace.sampleRate=50"
+})
+@ExtendWith(OutputCaptureExtension.class)
+public class ConfigPipelineManagerTest extends BaseMultithreadingManagerTest {
+
+    private static final long ENRICH_MS = 10L;
+
+    @Autowired
+    private Stages stages;
+    @Autowired
+    private Pipeline pipeline;
+    @Autowired
+    private OrderQueue orderQueue;
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    static class Stages {
+        final Set<String> validated = ConcurrentHashMap.newKeySet();
+        final Set<String> enriched = ConcurrentHashMap.newKeySet();
+        final Set<String> persisted = ConcurrentHashMap.newKeySet();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+
+        void check(Set<String> previous, org.javieraguerri.Order order) {
+            if (!previous.contains(order.getId()))
+                outOfOrder.incrementAndGet();
+        }
+    }
+
+    @TestConfiguration
+    static class StagesConfig {
+        @Bean
+        Stages stages() {
+            return new Stages();
+        }
+
+        @Bean
+        OrderStage validate(Stages stages) {
+            return order -> stages.validated.add(order.getId());
+        }
+
+        @Bean
+        OrderStage enrich(Stages stages) {
+            return new OrderStage() {
+                @Override
+                @SneakyThrows
+                public void process(org.javieraguerri.Order order) {
+                    Thread.sleep(ENRICH_MS);
+                    stages.check(stages.validated, order);
+                    stages.enriched.add(order.getId());
+                }
+            };
+        }
+
+        @Bean
+        OrderStage persist(Stages stages) {
+            return order -> {
+                stages.check(stages.enriched, order);
+                stages.persisted.add(order.getId());
+            };
+        }
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Every order goes through every stage once, in order, and is processed at the end")
+    public void ordersGoThroughEveryStageTest(CapturedOutput output) {
+        IntStream.range(0, 2).forEach(i -> manager.addProducer(0L, 4));
+        await().atMost(5, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() >= 200);
+        DrainReport report = manager.drain(0, 0);
+
+        assertTrue(report.completed(), "The pipeline should be empty: " + report);
+        int added = manager.getTotalOrdersAdded();
+        assertEquals(added, manager.getTotalOrdersProcessed());
+        assertEquals(added, stages.validated.size());
+        assertEquals(added, stages.enriched.size());
+        assertEquals(added, stages.persisted.size());
+        assertEquals(0, stages.outOfOrder.get(), "No stage should see an order before the previous one.");
+        List<StageStats> stats = report.stats().stages();
+        assertEquals(List.of("validate", "enrich", "persist"), stats.stream().map(StageStats::stage).toList());
+        stats.forEach(stage -> assertEquals(added, stage.ordersProcessed(), stage.toString()));
+        for (String worker : List.of("validate-0", "enrich-0", "persist-0"))
+            assertTrue(output.getOut().contains(" by " + worker + ": "), "Stage " + worker + " should trace sampled orders.");
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Scaling the slowest stage alone speeds the whole pipeline up")
+    public void scalingTheBottleneckTest() throws InterruptedException {
+        IntStream.range(0, 2).forEach(i -> manager.addProducer(0L, 4));
+        await().atMost(2, TimeUnit.SECONDS).until(() -> manager.getStageStats().get(1).queueSize() == 8);
+        int slow = processedIn(1000);
+
+        manager.addStageWorkers("enrich", 4);
+        int fast = processedIn(1000);
+        manager.drain(0, 0);
+
+        assertTrue(fast > 2 * slow, "5 enrich workers (" + fast + " orders/s) should be well ahead of 1 ("
+                + slow + " orders/s).");
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("A stage that falls behind holds back the previous ones and the producers")
+    public void backpressureTest() {
+        manager.removeStageWorker("enrich");
+        IntStream.range(0, 2).forEach(i -> manager.addProducer(0L, 4));
+
+        await().atMost(2, TimeUnit.SECONDS).until(() -> manager.getOrderQueueSize() == 16
+                && manager.getStageStats().get(1).queueSize() == 8);
+        int added = manager.getTotalOrdersAdded();
+        await().during(300, TimeUnit.MILLISECONDS).atMost(1, TimeUnit.SECONDS)
+                .until(() -> manager.getTotalOrdersAdded() == added);
+        assertEquals(0, manager.getTotalOrdersProcessed());
+
+        manager.addStageWorkers("enrich", 1);
+        await().atMost(2, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() > 0);
+        manager.drain(0, 0);
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+    }
+
+    private int processedIn(long ms) throws InterruptedException {
+        int before = manager.getTotalOrdersProcessed();
+        Thread.sleep(ms);
+        return manager.getTotalOrdersProcessed() - before;
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("Consumers can't be added in front of the stages, by hand, over HTTP or by the autoscaler")
+    public void consumersAreRefusedTest() {
+        assertThrows(IllegalStateException.class, () -> manager.addConsumer(0L));
+        assertEquals(HttpStatus.CONFLICT,
+                restTemplate.postForEntity("/manager/consumers?count=1", null, String.class).getStatusCode());
+        assertThrows(IllegalStateException.class, () -> new ConsumerAutoscaler(manager, orderQueue, Optional.of(pipeline)));
+        assertEquals(0, manager.getActiveConsumers());
+
+        manager.addProducer(0L);
+        DrainReport report = manager.drain(2000, 2);
+        assertTrue(report.completed(), report.toString());
+        assertEquals(0, manager.getActiveConsumers(), "Extra consumers should not be added to drain a pipeline.");
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+    }
+}
@@ -0,0 +1,89 @@
+package org.javieraguerri;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=16",
+        "multithreading.queue.wal.dir=" + ConfigPipelineOrderLogManagerTest.DIR,
+        "multithreading.queue.wal.flushIntervalMs=10",
+        "multithreading.pipeline.stages=accept,hold",
+        "multithreading.pipeline.hold.queueSize=8"
+})
+public class ConfigPipelineOrderLogManagerTest extends BaseMultithreadingManagerTest {
+    static final String DIR = "target/pipeline-order-log-test";
+
+    @Autowired
+    private OrderLog orderLog;
+
+    @Autowired
+    private CountDownLatch gate;
+
+    @BeforeAll
+    static void cleanLog() throws IOException {
+        FileSystemUtils.deleteRecursively(Path.of(DIR));
+    }
+
+    @TestConfiguration
+    static class StagesConfig {
+        @Bean
+        CountDownLatch gate() {
+            return new CountDownLatch(1);
+        }
+
+        @Bean
+        OrderStage accept() {
+            return order -> {
+            };
+        }
+
+        @Bean
+        OrderStage hold(CountDownLatch gate) {
+            return new OrderStage() {
+                @Override
+                @SneakyThrows
+                public void process(org.javieraguerri.Order order) {
+                    gate.await();
+                }
+            };
+        }
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Orders passed on by the first stage stay in the log until the last stage has processed them")
+    public void ordersAreAcknowledgedByTheLastStageTest() throws Exception {
+        manager.addProducer(0L);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getStageStats().get(1).queueSize() == 8
+                && manager.getOrderQueueSize() == 16);
+        assertTrue(manager.getStageStats().get(0).ordersProcessed() > 8, "The first stage should have passed orders on.");
+        assertEquals(0, orderLog.getCommittedSequence(), "No order should be acknowledged before the last stage.");
+
+        gate.countDown();
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() > 0);
+        manager.shutdown();
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+        orderLog.close();
+
+        OrderLog reopened = new OrderLog(DIR, 67108864, 10);
+        assertEquals(0, reopened.getPendingOrders(), "Every order processed by the last stage should be acknowledged.");
+        reopened.close();
+    }
+}
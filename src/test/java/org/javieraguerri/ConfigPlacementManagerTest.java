@@ -0,0 +1,73 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=16",
+        "multithreading.placement.enabled=true",
+        // Two sets on the first CPU, which every machine has
+        "multithreading.placement.cpuSets=0;0"
+})
+public class ConfigPlacementManagerTest extends BaseMultithreadingManagerTest {
+
+    @Autowired
+    private WorkerPlacement placement;
+
+    @Test
+    @Order(1)
+    @DisplayName("Producer n and consumer n share a CPU set, and the threads of a set are pinned to it")
+    public void workersArePinnedToTheirSetTest() throws Exception {
+        assertEquals(2, placement.getCpuSets().size());
+        assertSame(placement.executorFor(0), placement.executorFor(2));
+        assertNotSame(placement.executorFor(0), placement.executorFor(1));
+
+        String[] seen = placement.executorFor(1).submit(() -> new String[]{
+                Thread.currentThread().getName(), CpuAffinity.currentCpuList()}).get(5, TimeUnit.SECONDS);
+        assertEquals("Placement-1-0", seen[0]);
+        if (!CpuAffinity.currentCpuList().isEmpty()) // Linux
+            assertEquals("0", seen[1], "Thread should be pinned to CPU 0");
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Pinned producers and consumers process every order")
+    public void pinnedWorkersProcessEveryOrderTest() throws InterruptedException {
+        IntStream.range(0, 3).forEach(i -> manager.addProducer(10L));
+        IntStream.range(0, 3).forEach(i -> manager.addConsumer(10L));
+        Thread.sleep(1000);
+        assertEquals(3, manager.getActiveProducers());
+        assertEquals(3, manager.getActiveConsumers());
+
+        manager.shutdown();
+        assertEquals(0, manager.getActiveConsumers(), "Consumers should have terminated after shutdown.");
+        assertTrue(manager.getTotalOrdersProcessed() > 0);
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Cpu lists are parsed and printed in the Linux format")
+    public void cpuListsTest() {
+        BitSet cpus = CpuAffinity.parseCpuList("0-3, 8,10-11");
+        assertEquals(List.of(0, 1, 2, 3, 8, 10, 11), cpus.stream().boxed().toList());
+        assertEquals("0-3,8,10-11", CpuAffinity.toCpuList(cpus));
+        assertFalse(CpuAffinity.numaNodes().isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> CpuAffinity.pinCurrentThread(new BitSet()));
+    }
+}
@@ -0,0 +1,94 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.queue.impl=priority",
+        "multithreading.queue.priority.levels=3",
+        "multithreading.queue.priority.agingMs=300",
+        "multithreading.maxQueueSize=10"
+})
+public class ConfigPriorityManagerTest extends BaseMultithreadingManagerTest {
+
+    @Autowired
+    private OrderQueue orderQueue;
+
+    @Test
+    @Order(1)
+    @DisplayName("Urgent orders are processed first, FIFO within a priority")
+    public void urgentOrdersFirstTest() {
+        orderQueue.offerOrder(new org.javieraguerri.Order(0, 0).withPriority(0));
+        orderQueue.offerOrder(new org.javieraguerri.Order(0, 1).withPriority(2));
+        orderQueue.offerOrder(new org.javieraguerri.Order(0, 2).withPriority(1));
+        orderQueue.offerOrder(new org.javieraguerri.Order(0, 3).withPriority(2));
+        orderQueue.offerOrder(new org.javieraguerri.Order(0, 4).withPriority(7)); // Clamped to the highest level
+
+        assertEquals("0__1", orderQueue.pollOrder().getId());
+        assertEquals("0__3", orderQueue.pollOrder().getId());
+        assertEquals("0__4", orderQueue.pollOrder().getId());
+        assertEquals("0__2", orderQueue.pollOrder().getId());
+        assertEquals("0__0", orderQueue.pollOrder().getId());
+        assertNull(orderQueue.pollOrder());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("An order waiting longer than the aging time goes ahead of more urgent ones")
+    public void agingPreventsStarvationTest() throws InterruptedException {
+        orderQueue.offerOrder(new org.javieraguerri.Order(0, 0).withPriority(0));
+        Thread.sleep(500);
+        orderQueue.offerOrder(new org.javieraguerri.Order(1, 0).withPriority(2));
+
+        assertEquals("0__0", orderQueue.pollOrder().getId(), "The aged low-priority order should go first.");
+        assertEquals("1__0", orderQueue.pollOrder().getId());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Orders past their deadline are dropped instead of processed")
+    public void expiredOrdersDroppedTest() throws InterruptedException {
+        long now = System.nanoTime();
+        orderQueue.offerOrder(new org.javieraguerri.Order(0, 0).withDeadline(now + TimeUnit.MILLISECONDS.toNanos(50)));
+        orderQueue.offerOrder(new org.javieraguerri.Order(0, 1).withDeadline(now + TimeUnit.SECONDS.toNanos(60)));
+        orderQueue.offerOrder(new org.javieraguerri.Order(0, 2));
+        Thread.sleep(100);
+
+        assertEquals("0__1", orderQueue.pollOrder().getId());
+        assertEquals(1, orderQueue.getTotalOrdersExpired());
+        assertEquals("0__2", orderQueue.pollOrder().getId());
+        assertNull(orderQueue.pollOrder());
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("Every order produced is either processed or expired")
+    public void processedPlusExpiredEqualsAddedTest() throws InterruptedException {
+        manager.addProducer(1L, 1, 2, 0);
+        manager.addProducer(1L, 4, 0, 20);
+        manager.addProducer(1L, 1, 1, 5);
+        Thread.sleep(500);
+        manager.addConsumer(5L, 2);
+        Thread.sleep(2000);
+        manager.shutdown();
+
+        int added = manager.getTotalOrdersAdded();
+        int processed = manager.getTotalOrdersProcessed();
+        int expired = manager.getTotalOrdersExpired();
+        assertTrue(expired > 0, "Some short-lived orders should have expired while queued.");
+        assertTrue(processed > 0, "Some orders should have been processed.");
+        assertEquals(added, processed + expired,
+                "Orders added (" + added + ") should be processed (" + processed + ") or expired (" + expired + ").");
+        assertEquals(0, manager.getOrderQueueSize());
+        assertEquals(expired, manager.getStats().totalOrdersExpired());
+    }
+}
@@ -0,0 +1,81 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The README cases that depend on the queue engine, run against each of them.
+ */
+public class ConfigQueueEnginesManagerTest extends BaseQueueEnginesManagerTest {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("engines")
+    @Order(2)
+    @DisplayName("2. Force the upper boundary (queue full)")
+    public void producersBlockedWhenQueueFullTest(String queueImpl) throws InterruptedException {
+        start(queueImpl);
+        int producers = 6;
+        IntStream.range(0, producers).forEach(i -> manager.addProducer(10L, 1 + i % 3));
+        Thread.sleep(2000);
+
+        assertEquals(MAX_QUEUE_SIZE, manager.getOrderQueueSize(), "Queue should be full.");
+        assertEquals(producers, manager.getActiveProducers(), "Producers should be active.");
+        manager.shutdown();
+        assertEquals(0, manager.getActiveProducers(), "Producers should have terminated after shutdown.");
+        assertEquals(MAX_QUEUE_SIZE, manager.getTotalOrdersAdded(),
+                "Total orders created (" + manager.getTotalOrdersAdded() + ") should equal the queue's maximum capacity (" + MAX_QUEUE_SIZE + ").");
+        assertEquals(0, manager.getTotalOrdersProcessed(), "No orders should have been processed.");
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("engines")
+    @Order(6)
+    @DisplayName("6. Burst of placing orders and burst of processing, single and batched")
+    public void burstsTest(String queueImpl) throws InterruptedException {
+        start(queueImpl);
+        int producers = 20;
+        int consumers = 20;
+
+        IntStream.range(0, producers).forEach(i -> manager.addProducer(1L, 1 + i % 2 * 7));
+        Thread.sleep(1000);
+        IntStream.range(0, consumers).forEach(i -> manager.addConsumer(1L, 1 + i % 2 * 3));
+        Thread.sleep(3000);
+        IntStream.range(0, producers).forEach(i -> manager.removeProducer());
+        Thread.sleep(1000);
+
+        manager.shutdown();
+        assertEquals(0, manager.getActiveConsumers(), "Consumers should have terminated after shutdown.");
+        int totalOrdersCreated = manager.getTotalOrdersAdded();
+        int totalOrdersProcessed = manager.getTotalOrdersProcessed();
+        assertEquals(totalOrdersCreated, totalOrdersProcessed,
+                "All orders created (" + totalOrdersCreated + ") should have been processed (" + totalOrdersProcessed + ").");
+        assertEquals(0, manager.getOrderQueueSize(),
+                "Order queue " + manager.getOrderQueueSize() + " should be empty at the end.");
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("engines")
+    @Order(9)
+    @DisplayName("9. Activate shutdown repeatedly")
+    public void activateShutdownRepeatedlyTest(String queueImpl) throws InterruptedException {
+        start(queueImpl);
+        IntStream.range(0, 10).forEach(i -> manager.addProducer(100));
+        IntStream.range(0, 10).forEach(i -> manager.addConsumer(100));
+        Thread.sleep(4000);
+
+        IntStream.range(0, 5).forEach(i -> manager.shutdown());
+
+        int totalOrdersCreated = manager.getTotalOrdersAdded();
+        int totalOrdersProcessed = manager.getTotalOrdersProcessed();
+        assertEquals(totalOrdersCreated, totalOrdersProcessed,
+                "All orders created (" + totalOrdersCreated + ") should have been processed (" + totalOrdersProcessed + ").");
+        assertEquals(0, manager.getOrderQueueSize(),
+                "Order queue " + manager.getOrderQueueSize() + " should be empty at the end.");
+    }
+}
@@ -0,0 +1,57 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=1024"
+})
+public class ConfigRateLimitedManagerTest extends BaseMultithreadingManagerTest {
+
+    @Test
+    @Order(1)
+    @DisplayName("Each rate-limited producer keeps its own rate, well below 1 ms per order")
+    public void perProducerRateTest() throws InterruptedException {
+        IntStream.range(0, 4).forEach(i -> manager.addConsumer(0L, 64));
+        manager.addRateLimitedProducer(2000, 1);
+        manager.addRateLimitedProducer(3000, 1);
+
+        assertRate(5000, measureAddedRate(2000));
+        manager.shutdown();
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("A shared rate is split among all producers, whatever their number")
+    public void sharedProducerRateTest() throws InterruptedException {
+        IntStream.range(0, 4).forEach(i -> manager.addConsumer(0L, 64));
+        manager.setProducerRate(4000);
+        IntStream.range(0, 8).forEach(i -> manager.addProducer(0L, 8));
+
+        assertRate(4000, measureAddedRate(2000));
+        manager.shutdown();
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+    }
+
+    private double measureAddedRate(long windowMs) throws InterruptedException {
+        Thread.sleep(200); // warm up
+        int before = manager.getTotalOrdersAdded();
+        long start = System.nanoTime();
+        Thread.sleep(windowMs);
+        int added = manager.getTotalOrdersAdded() - before;
+        return added * 1e9 / (System.nanoTime() - start);
+    }
+
+    private static void assertRate(double expected, double actual) {
+        assertTrue(Math.abs(actual - expected) <= expected * 0.1,
+                "Expected about " + expected + " orders/s but got " + actual + ".");
+    }
+}
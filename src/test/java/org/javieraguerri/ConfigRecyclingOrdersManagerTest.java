@@ -0,0 +1,111 @@
+package org.javieraguerri;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.awaitility.Awaitility.await;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=64",
+        "multithreading.order.recycle=true",
+        "multithreading.order.poolSize=256"
+})
+public class ConfigRecyclingOrdersManagerTest extends BaseMultithreadingManagerTest {
+    private static final int ORDERS = 200_000;
+
+    @Autowired
+    private OrderQueue orderQueue;
+
+    @Autowired
+    private OrderFactory orderFactory;
+
+    @Autowired
+    private OrderProcessor orderProcessor;
+
+    @Test
+    @Order(1)
+    @DisplayName("Produce, queue, process and recycle allocate nothing in steady state")
+    public void steadyStateAllocatesNothingTest() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        runPipeline(orderFactory, ORDERS); // Warm up: fill the pool, compile the hot path
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        runPipeline(orderFactory, ORDERS);
+        long recycledBytes = threads.getThreadAllocatedBytes(threadId) - before;
+
+        before = threads.getThreadAllocatedBytes(threadId);
+        runPipeline(new OrderFactory(), ORDERS);
+        long allocatingBytes = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(recycledBytes < ORDERS,
+                "Expected less than a byte per order but got " + recycledBytes + " bytes for " + ORDERS + " orders.");
+        assertTrue(allocatingBytes >= ORDERS * 16L,
+                "Without recycling every order should be allocated, got " + allocatingBytes + " bytes.");
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Recycled orders flow through producers and consumers without losing any")
+    public void recycledOrdersAreAllProcessedTest() throws InterruptedException {
+        IntStream.range(0, 4).forEach(i -> manager.addProducer(0L, 1 + i % 2 * 15));
+        IntStream.range(0, 4).forEach(i -> manager.addConsumer(0L, 1 + i % 2 * 15));
+        Thread.sleep(1000);
+        manager.shutdown();
+        assertTrue(manager.getTotalOrdersAdded() > 0);
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Producer and consumer threads allocate next to nothing per order through the Flow adapters")
+    public void flowPathAllocatesNothingTest() {
+        manager.addProducer(0L, 16);
+        manager.addConsumer(0L, 16);
+        Map<String, Long> workers = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("Producer-0") || thread.getName().equals("Consumer-0"))
+                .collect(Collectors.toMap(Thread::getName, Thread::getId));
+        assertEquals(2, workers.size(), "Workers should run on threads of their own: " + workers);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        await().atMost(30, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() >= ORDERS); // Warm up
+
+        long before = allocatedBytes(threads, workers);
+        int processedBefore = manager.getTotalOrdersProcessed();
+        await().atMost(30, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() - processedBefore >= ORDERS);
+        long bytes = allocatedBytes(threads, workers) - before;
+        int processed = manager.getTotalOrdersProcessed() - processedBefore;
+        manager.shutdown();
+
+        assertTrue(bytes < processed, "Expected less than a byte per order but got " + bytes + " bytes for "
+                + processed + " orders.");
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads, Map<String, Long> workers) {
+        return workers.values().stream().mapToLong(threads::getThreadAllocatedBytes).sum();
+    }
+
+    private void runPipeline(OrderFactory factory, int orders) {
+        for (int i = 0; i < orders; i++) {
+            orderQueue.offerOrder(factory.produceOrder(0, i));
+            org.javieraguerri.Order order = orderQueue.pollOrder();
+            orderProcessor.processOrder(order);
+            orderQueue.getMetrics().processed(order);
+            orderQueue.acknowledge(order);
+            order.release();
+        }
+    }
+}
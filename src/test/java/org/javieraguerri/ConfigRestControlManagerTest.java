@@ -0,0 +1,78 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class ConfigRestControlManagerTest extends BaseMultithreadingManagerTest {
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Test
+    @Order(1)
+    @DisplayName("Scale producers and consumers over HTTP, read stats and drain")
+    public void scaleOverHttpTest() {
+        ManagerStats stats = restTemplate.postForObject("/manager/producers?count=3&delayMs=50", null, ManagerStats.class);
+        assertNotNull(stats);
+        assertEquals(3, stats.activeProducers());
+
+        stats = restTemplate.postForObject("/manager/consumers?count=2&delayMs=50", null, ManagerStats.class);
+        assertEquals(2, stats.activeConsumers());
+        await().atMost(3, TimeUnit.SECONDS)
+                .until(() -> restTemplate.getForObject("/manager/stats", ManagerStats.class).totalOrdersProcessed() > 0);
+
+        stats = restTemplate.exchange("/manager/producers?count=2", HttpMethod.DELETE, null, ManagerStats.class).getBody();
+        assertEquals(1, stats.activeProducers());
+        stats = restTemplate.exchange("/manager/consumers?count=1", HttpMethod.DELETE, null, ManagerStats.class).getBody();
+        assertEquals(1, stats.activeConsumers());
+
+        DrainReport report = restTemplate.postForObject("/manager/drain?timeoutMs=5000", null, DrainReport.class);
+        assertTrue(report.completed());
+        stats = report.stats();
+        assertEquals(0, stats.activeProducers());
+        assertEquals(0, stats.activeConsumers());
+        assertEquals(0, stats.queueSize());
+        assertEquals(stats.totalOrdersAdded(), stats.totalOrdersProcessed(),
+                "All orders created (" + stats.totalOrdersAdded() + ") should have been processed (" + stats.totalOrdersProcessed() + ").");
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("Workers can't be added during a drain, and are refused without waiting for it")
+    public void scalingDuringDrainTest() {
+        restTemplate.postForObject("/manager/producers?count=2&delayMs=0", null, ManagerStats.class);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getOrderQueueSize() == 4);
+        restTemplate.postForObject("/manager/consumers?count=1&delayMs=500", null, ManagerStats.class);
+
+        CompletableFuture<DrainReport> drain = CompletableFuture.supplyAsync(
+                () -> restTemplate.postForObject("/manager/drain?timeoutMs=10000", null, DrainReport.class));
+        await().atMost(3, TimeUnit.SECONDS).until(manager::isShutdown);
+        long startedAt = System.nanoTime();
+        ResponseEntity<String> refused = restTemplate.postForEntity("/manager/producers", null, String.class);
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+
+        assertEquals(HttpStatus.CONFLICT, refused.getStatusCode());
+        assertEquals(HttpStatus.CONFLICT, restTemplate.postForEntity("/manager/consumers", null, String.class).getStatusCode());
+        assertTrue(waitedMs < 1000, "The refusal should not wait for the drain (" + waitedMs + " ms).");
+        assertFalse(drain.isDone(), "A consumer at 500 ms per order should still be draining.");
+        assertTrue(drain.join().completed());
+        assertEquals(0, manager.getActiveProducers());
+    }
+}
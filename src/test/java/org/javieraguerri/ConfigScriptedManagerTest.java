@@ -0,0 +1,120 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The test cases of the README, played step by step by {@link OrderScript} instead of with timed workers.
+ */
+@SpringBootTest(properties = "multithreading.maxQueueSize=4")
+public class ConfigScriptedManagerTest extends BaseMultithreadingManagerTest {
+
+    @Autowired
+    private OrderQueue orderQueue;
+    @Autowired
+    private OrderFactory orderFactory;
+    @Autowired
+    private OrderProcessor orderProcessor;
+
+    private OrderScript.Result run(String script) {
+        OrderScript.Result result = OrderScript.parse(script).run(orderQueue, orderFactory, orderProcessor);
+        assertCounted(result);
+        return result;
+    }
+
+    /**
+     * What the script did is what the queue and the processor counted.
+     */
+    private void assertCounted(OrderScript.Result result) {
+        assertEquals(result.placed(), orderQueue.getTotalOrdersAdded(), result.toString());
+        assertEquals(result.processed(), orderProcessor.getTotalOrdersProcessed(), result.toString());
+        assertEquals(result.placed() - result.processed(), orderQueue.currentSize(), result.toString());
+        assertEquals(0, orderQueue.getInFlightOrders(), result.toString());
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("1. Processing from an empty queue")
+    public void processingFromEmptyQueueTest() {
+        OrderScript.Result result = run("C, C, C");
+        assertEquals(0, result.processed());
+        assertEquals(3, result.waitingConsumers(), "Consumers should be waiting for orders.");
+        assertArrayEquals(new int[]{0, 0, 0}, result.queueSizes());
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("2. Force the upper boundary (queue full)")
+    public void producersBlockedWhenQueueFullTest() {
+        OrderScript.Result result = run("P, P, P, P, P, P ...");
+        assertEquals(4, result.placed(), "Only the queue's maximum capacity should have been placed.");
+        assertEquals(2, result.blockedProducers(), "Producers should be blocked on the full queue.");
+        assertArrayEquals(new int[]{1, 2, 3, 4, 4, 4}, result.queueSizes());
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("3. Start with processing from an empty queue and then continue normally")
+    public void processingFromEmptyQueueThenContinueTest() {
+        OrderScript.Result result = run("C, P, P, C, P, P, C, C, P");
+        assertEquals(5, result.placed());
+        assertEquals(4, result.processed(), "The waiting consumer should have taken the first order.");
+        assertEquals(0, result.waitingConsumers());
+        assertArrayEquals(new int[]{0, 0, 1, 0, 1, 2, 1, 0, 1}, result.queueSizes());
+    }
+
+    @Test
+    @Order(4)
+    @DisplayName("4. Normal operation with balanced execution (no boundary limits reached)")
+    public void balancedExecutionTest() {
+        OrderScript.Result result = run("P, P, P, C, P, C, C, P, C, P, P, C, P, C ...");
+        assertEquals(8, result.placed());
+        assertEquals(6, result.processed());
+        assertEquals(0, result.blockedProducers(), "No producer should have found the queue full.");
+        assertEquals(0, result.waitingConsumers(), "No consumer should have found the queue empty.");
+        assertArrayEquals(new int[]{1, 2, 3, 2, 3, 2, 1, 2, 1, 2, 3, 2, 3, 2}, result.queueSizes());
+    }
+
+    @Test
+    @Order(5)
+    @DisplayName("5. Gently hitting boundaries (without forcing them)")
+    public void gentlyHittingBoundariesTest() {
+        OrderScript.Result result = run("P, P, P, P, C, C, P, P, C, C, C, C, P, P, C, C, P, P, P, P, C, C, C, C ...");
+        assertEquals(12, result.placed());
+        assertEquals(12, result.processed());
+        assertEquals(4, result.maxQueueSize(), "The queue should have been full.");
+        assertEquals(0, result.blockedProducers());
+        assertEquals(0, result.waitingConsumers());
+        assertArrayEquals(new int[]{1, 2, 3, 4, 3, 2, 3, 4, 3, 2, 1, 0, 1, 2, 1, 0, 1, 2, 3, 4, 3, 2, 1, 0}, result.queueSizes());
+    }
+
+    @Test
+    @Order(6)
+    @DisplayName("6. Burst of placing orders and burst of processing")
+    public void burstsTest() {
+        OrderScript.Result result = run("P, P, P, P, P, P, P, P, C, C, C, C, C, C, C, C, ...");
+        assertEquals(8, result.placed(), "Blocked producers should have placed their orders as room was made.");
+        assertEquals(8, result.processed());
+        assertEquals(0, result.blockedProducers());
+        assertArrayEquals(new int[]{1, 2, 3, 4, 4, 4, 4, 4, 4, 4, 4, 4, 3, 2, 1, 0}, result.queueSizes());
+    }
+
+    @Test
+    @Order(7)
+    @DisplayName("7. Long execution with mixed operations")
+    public void longExecutionTest() {
+        OrderScript.Result result = OrderScript.parse("C, C, P, C, C, P, C, C, P, P, C, C, P, P, P, C, C, C, C, P")
+                .repeat(1000).run(orderQueue, orderFactory, orderProcessor);
+        assertCounted(result);
+        assertEquals(8000, result.placed());
+        assertEquals(8000, result.processed(), "Every order should have been taken by a waiting consumer.");
+        assertEquals(4000, result.waitingConsumers());
+        assertEquals(0, result.maxQueueSize(), "Orders should never have stayed in the queue.");
+    }
+}
@@ -0,0 +1,34 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.queue.impl=sharded",
+        "multithreading.queue.shards=4",
+        "multithreading.maxQueueSize=10"
+})
+public class ConfigShardedManagerTest extends BaseMultithreadingManagerTest {
+
+    @Value("${multithreading.maxQueueSize}")
+    private int MAX_QUEUE_SIZE;
+
+    @Test
+    @DisplayName("A single consumer steals from every shard")
+    public void consumerStealsFromOtherShardsTest() throws InterruptedException {
+        manager.addProducer(1L);
+        manager.addConsumer(1L);
+        Thread.sleep(2000);
+        manager.shutdown();
+
+        assertTrue(manager.getTotalOrdersProcessed() > 4 * MAX_QUEUE_SIZE,
+                "The consumer should keep up with the producer (" + manager.getTotalOrdersProcessed() + " processed).");
+        assertEquals(manager.getTotalOrdersAdded(), manager.getTotalOrdersProcessed());
+        assertEquals(0, manager.getOrderQueueSize());
+    }
+}
@@ -0,0 +1,66 @@
+package org.javieraguerri;
+
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=64"
+})
+public class ConfigSlowProcessorManagerTest extends BaseMultithreadingManagerTest {
+
+    private static final long PROCESSING_MS = 20L;
+
+    @TestConfiguration
+    static class SlowProcessorConfig {
+        @Bean
+        @Primary
+        OrderProcessor slowOrderProcessor() {
+            return new OrderProcessor() {
+                @Override
+                @SneakyThrows
+                public void processOrder(Order order) {
+                    Thread.sleep(PROCESSING_MS);
+                    super.processOrder(order);
+                }
+            };
+        }
+    }
+
+    @Test
+    @DisplayName("Processing runs in parallel: N consumers reach close to N times the throughput of one")
+    public void consumersScaleWithSlowProcessorTest() throws InterruptedException {
+        int consumers = 4;
+        IntStream.range(0, 4).forEach(i -> manager.addProducer(0L));
+
+        manager.addConsumer(0L);
+        double singleConsumerRate = measureProcessingRate(2000);
+        manager.removeConsumer();
+
+        IntStream.range(0, consumers).forEach(i -> manager.addConsumer(0L));
+        double multipleConsumersRate = measureProcessingRate(2000);
+
+        manager.shutdown();
+        double speedup = multipleConsumersRate / singleConsumerRate;
+        assertTrue(speedup >= consumers * 0.75,
+                "Expected close to " + consumers + "x speedup but got " + speedup
+                        + "x (" + singleConsumerRate + " vs " + multipleConsumersRate + " orders/s).");
+    }
+
+    private double measureProcessingRate(long windowMs) throws InterruptedException {
+        Thread.sleep(200); // warm up
+        int before = manager.getTotalOrdersProcessed();
+        long start = System.nanoTime();
+        Thread.sleep(windowMs);
+        int processed = manager.getTotalOrdersProcessed() - before;
+        return processed * 1e9 / (System.nanoTime() - start);
+    }
+}
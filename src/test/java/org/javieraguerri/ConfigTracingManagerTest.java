@@ -0,0 +1,138 @@
+package org.javieraguerri;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.system.CapturedOutput;
+import org.springframework.boot.test.system.OutputCaptureExtension;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "multithreading.maxQueueSize=32",
+        "multithreading.trace.sampleRate=10"
+})
+@ExtendWith(OutputCaptureExtension.class)
+public class ConfigTracingManagerTest extends BaseMultithreadingManagerTest {
+
+    private static final long PROCESSING_MS = 5L;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private OrderQueue orderQueue;
+
+    @TestConfiguration
+    static class SlowProcessorConfig {
+        @Bean
+        @Primary
+        OrderProcessor slowOrderProcessor() {
+            return new OrderProcessor() {
+                @Override
+                @SneakyThrows
+                public void processOrder(org.javieraguerri.Order order) {
+                    Thread.sleep(PROCESSING_MS);
+                    super.processOrder(order);
+                }
+            };
+        }
+    }
+
+    @Test
+    @Order(1)
+    @DisplayName("Queue wait and service time are recorded per consumer, and tell a short-handed queue apart")
+    public void queueWaitAndServiceTimeTest() {
+        IntStream.range(0, 2).forEach(i -> manager.addProducer(0L));
+        manager.addConsumer(0L);
+        manager.addConsumer(0L);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() >= 100);
+
+        for (String worker : List.of("Consumer-0", "Consumer-1")) {
+            Timer queueWait = meterRegistry.get("orders.queue.wait").tag("worker", worker).timer();
+            Timer serviceTime = meterRegistry.get("orders.service.time").tag("worker", worker).timer();
+            assertTrue(serviceTime.count() > 0);
+            assertTrue(serviceTime.mean(TimeUnit.MILLISECONDS) >= PROCESSING_MS, worker + " service time: "
+                    + serviceTime.mean(TimeUnit.MILLISECONDS));
+            // The queue stays full, so an order waits for about 32 / 2 services before a consumer takes it
+            assertTrue(queueWait.mean(TimeUnit.MILLISECONDS) > 4 * serviceTime.mean(TimeUnit.MILLISECONDS),
+                    worker + " queue wait: " + queueWait.mean(TimeUnit.MILLISECONDS));
+        }
+
+        manager.removeConsumer();
+        assertNull(meterRegistry.find("orders.queue.wait").tag("worker", "Consumer-1").timer(),
+                "The histograms of a consumer should be removed with it.");
+        manager.shutdown();
+    }
+
+    @Test
+    @Order(2)
+    @DisplayName("One order in sampleRate is logged with the full breakdown of its time")
+    public void sampledTracesTest(CapturedOutput output) {
+        manager.addProducer(0L);
+        manager.addConsumer(0L);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() >= 50);
+        manager.shutdown();
+
+        long traces = output.getOut().lines().filter(line -> line.contains("Trace OrderId")).count();
+        int processed = manager.getTotalOrdersProcessed();
+        assertEquals(processed / 10, traces, "Expected one trace every 10 orders out of " + processed);
+        assertTrue(output.getOut().contains("us queued"));
+    }
+
+    @Test
+    @Order(3)
+    @DisplayName("Every order collects its creation, enqueue, dequeue and processing times, in that order")
+    public void timestampsTest() {
+        List<org.javieraguerri.Order> received = new CopyOnWriteArrayList<>();
+        new OrderPublisher(orderQueue, null).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(20);
+            }
+
+            @Override
+            public void onNext(org.javieraguerri.Order order) {
+                received.add(order);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        manager.addProducer(1L);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> received.size() == 20);
+        manager.addConsumer(0L);
+        await().atMost(3, TimeUnit.SECONDS).until(() -> manager.getTotalOrdersProcessed() > 0);
+        manager.shutdown();
+
+        for (org.javieraguerri.Order order : received) {
+            assertTrue(order.getCreatedAtNanos() != 0);
+            assertTrue(order.getEnqueuedAtNanos() - order.getCreatedAtNanos() >= 0, order.toString());
+            assertTrue(order.getDequeuedAtNanos() - order.getEnqueuedAtNanos() >= 0, order.toString());
+            assertEquals(0, order.getProcessedAtNanos(), "Only consumers mark orders processed.");
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.javieraguerri;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = {
+        "multithreading.execution.mode=virtual",
+        "multithreading.maxQueueSize=64",
+        "multithreading.executor.producer.limit=100",
+        "multithreading.executor.consumer.limit=500"
+})
+public class ConfigVirtualThreadsManagerTest extends BaseMultithreadingManagerTest {
+
+    @Test
+    @DisplayName("Hundreds of workers on the shared executor, beyond the platform thread limits")
+    public void manyWorkersOnSharedExecutorTest() throws InterruptedException {
+        IntStream.range(0, 150).forEach(i -> manager.addProducer(50L));
+        IntStream.range(0, 600).forEach(i -> manager.addConsumer(50L));
+        Thread.sleep(3000);
+        assertEquals(100, manager.getActiveProducers());
+        assertEquals(500, manager.getActiveConsumers());
+
+        IntStream.range(0, 150).forEach(i -> manager.removeProducer());
+        manager.shutdown();
+        assertEquals(0, manager.getActiveProducers(), "Producers should have terminated after shutdown.");
+        assertEquals(0, manager.getActiveConsumers(), "Consumers should have terminated after shutdown.");
+        int totalOrdersCreated = manager.getTotalOrdersAdded();
+        int totalOrdersProcessed = manager.getTotalOrdersProcessed();
+        assertEquals(totalOrdersCreated, totalOrdersProcessed,
+                "All orders created (" + totalOrdersCreated + ") should have been processed (" + totalOrdersProcessed + ").");
+        assertEquals(0, manager.getOrderQueueSize(),
+                "Order queue " + manager.getOrderQueueSize() + " should be empty at the end.");
+    }
+}
@@ -0,0 +1,166 @@
+package org.javieraguerri;
+
+import io.micrometer.core.instrument.Timer;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sequence of timed phases, each run with a given number of producers and consumers started through
+ * {@link Manager}, measuring the throughput and latency of every phase.
+ * <p>
+ * Between phases the manager is scaled to the next phase's workers; the orders already queued carry over. Once
+ * the last phase ends, the manager is shut down so that the queue is drained. Results are written to
+ * target/load-profile-&lt;name&gt;.csv, one line per phase, so runs can be compared against a baseline.
+ */
+@Slf4j
+public class LoadProfile {
+    private final String name;
+    private final List<Phase> phases;
+
+    public LoadProfile(String name, List<Phase> phases) {
+        this.name = name;
+        this.phases = List.copyOf(phases);
+    }
+
+    /**
+     * Producers grow from 1 to maxProducers, one more every phase, against a fixed number of consumers.
+     */
+    public static LoadProfile ramp(int maxProducers, int consumers, long delayMs, long phaseMs) {
+        List<Phase> phases = new ArrayList<>();
+        for (int producers = 1; producers <= maxProducers; producers++)
+            phases.add(new Phase("ramp-" + producers, producers, consumers, delayMs, delayMs, phaseMs));
+        return new LoadProfile("ramp", phases);
+    }
+
+    /**
+     * Producers alone fill the queue, then consumers alone empty it, the given number of times.
+     */
+    public static LoadProfile burst(int workers, int bursts, long delayMs, long phaseMs) {
+        List<Phase> phases = new ArrayList<>();
+        for (int i = 1; i <= bursts; i++) {
+            phases.add(new Phase("produce-" + i, workers, 0, delayMs, delayMs, phaseMs));
+            phases.add(new Phase("consume-" + i, 0, workers, delayMs, delayMs, phaseMs));
+        }
+        return new LoadProfile("burst", phases);
+    }
+
+    /**
+     * The same producers and consumers for a long time, measured in phases of phaseMs to show any drift.
+     */
+    public static LoadProfile soak(int producers, int consumers, long delayMs, long durationMs, long phaseMs) {
+        List<Phase> phases = new ArrayList<>();
+        for (int i = 1; i <= Math.max(1, durationMs / phaseMs); i++)
+            phases.add(new Phase("soak-" + i, producers, consumers, delayMs, delayMs, phaseMs));
+        return new LoadProfile("soak", phases);
+    }
+
+    /**
+     * Scales an {@link OrderScript} up to real workers: every run of n P's becomes a phase of n producers and no
+     * consumers, and every run of n C's one of n consumers and no producers, lasting n * stepMs.
+     */
+    public static LoadProfile fromScript(String name, OrderScript script, long delayMs, long stepMs) {
+        List<Phase> phases = new ArrayList<>();
+        List<Character> steps = script.getSteps();
+        for (int i = 0; i < steps.size(); ) {
+            int from = i;
+            while (i < steps.size() && steps.get(i).equals(steps.get(from)))
+                i++;
+            int workers = i - from;
+            boolean produce = steps.get(from) == 'P';
+            phases.add(new Phase(phases.size() + 1 + "-" + workers + steps.get(from), produce ? workers : 0,
+                    produce ? 0 : workers, delayMs, delayMs, workers * stepMs));
+        }
+        return new LoadProfile(name, phases);
+    }
+
+    public List<Phase> getPhases() {
+        return phases;
+    }
+
+    /**
+     * Runs every phase against a manager with no workers yet, then shuts it down.
+     */
+    @SneakyThrows
+    public List<PhaseResult> run(Manager manager, OrderQueue orderQueue) {
+        List<PhaseResult> results = new ArrayList<>(phases.size());
+        Timer latency = orderQueue.getMetrics().getLatency();
+        for (Phase phase : phases) {
+            int queuedBefore = manager.getOrderQueueSize() + orderQueue.getInFlightOrders();
+            int processedBefore = manager.getTotalOrdersProcessed();
+            long latencyCountBefore = latency.count();
+            double latencyTotalBefore = latency.totalTime(TimeUnit.MILLISECONDS);
+            long startedAt = System.nanoTime();
+            // Workers of the last phase go first, so that the new ones do not overlap with them
+            while (manager.getActiveProducers() > phase.producers())
+                manager.removeProducer();
+            while (manager.getActiveConsumers() > phase.consumers())
+                manager.removeConsumer();
+            while (manager.getActiveProducers() < phase.producers())
+                manager.addProducer(phase.producerDelayMs());
+            while (manager.getActiveConsumers() < phase.consumers())
+                manager.addConsumer(phase.consumerDelayMs());
+            Thread.sleep(Math.max(0, phase.durationMs() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)));
+            double seconds = (System.nanoTime() - startedAt) / 1e9;
+
+            int processed = manager.getTotalOrdersProcessed() - processedBefore;
+            long latencyCount = latency.count() - latencyCountBefore;
+            ManagerStats stats = manager.getStats();
+            // Counted from what left and what stayed: a producer blocked on a full queue counts its order until it gives up
+            int added = processed + manager.getOrderQueueSize() + orderQueue.getInFlightOrders() - queuedBefore;
+            PhaseResult result = new PhaseResult(phase, added, processed,
+                    processed / seconds,
+                    latencyCount == 0 ? 0 : (latency.totalTime(TimeUnit.MILLISECONDS) - latencyTotalBefore) / latencyCount,
+                    stats.latencyP99Ms(), stats.queueSize());
+            results.add(result);
+            log.info("Phase {}: {} producers, {} consumers, {} orders/s, {} ms mean latency, {} ms p99, {} queued",
+                    phase.name(), phase.producers(), phase.consumers(), String.format(Locale.ROOT, "%.1f", result.throughput()),
+                    String.format(Locale.ROOT, "%.2f", result.latencyMeanMs()), String.format(Locale.ROOT, "%.2f", result.latencyP99Ms()),
+                    result.queueSize());
+        }
+        manager.shutdown();
+        write(results);
+        return results;
+    }
+
+    private void write(List<PhaseResult> results) throws IOException {
+        StringBuilder csv = new StringBuilder("phase,producers,consumers,durationMs,added,processed,throughput,latencyMeanMs,latencyP99Ms,queueSize\n");
+        for (PhaseResult result : results) {
+            Phase phase = result.phase();
+            csv.append(String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%d,%.1f,%.3f,%.3f,%d%n", phase.name(), phase.producers(),
+                    phase.consumers(), phase.durationMs(), result.added(), result.processed(), result.throughput(),
+                    result.latencyMeanMs(), result.latencyP99Ms(), result.queueSize()));
+        }
+        Path target = Path.of("target");
+        if (Files.isDirectory(target))
+            Files.writeString(target.resolve("load-profile-" + name + ".csv"), csv);
+    }
+
+    public record Phase(String name,
+                        int producers,
+                        int consumers,
+                        long producerDelayMs,
+                        long consumerDelayMs,
+                        long durationMs) {
+    }
+
+    /**
+     * Orders added and processed during the phase, scaling to its workers included, processed per second, and the enqueue-to-process latency of the
+     * orders processed during the phase (mean) and over the last minute (p99). The queue size is at the end.
+     */
+    public record PhaseResult(Phase phase,
+                              int added,
+                              int processed,
+                              double throughput,
+                              double latencyMeanMs,
+                              double latencyP99Ms,
+                              int queueSize) {
+    }
+}
@@ -0,0 +1,122 @@
+package org.javieraguerri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A test case in the "P, P, C, C" notation of the README, played step by step against an {@link OrderQueue}
+ * on the calling thread, so that it runs in milliseconds and always ends the same way.
+ * <p>
+ * P places one order and C processes one. As with real workers, a P that finds the queue full is left waiting
+ * and places its order as soon as a C makes room, and a C that finds it empty is left waiting and processes the
+ * next order placed. The "..." of the README is ignored: repeat the script to make it longer.
+ */
+public class OrderScript {
+    private final List<Character> steps;
+
+    private OrderScript(List<Character> steps) {
+        this.steps = steps;
+    }
+
+    public static OrderScript parse(String script) {
+        List<Character> steps = new ArrayList<>();
+        for (String step : script.replace("...", ",").split(",")) {
+            step = step.trim().toUpperCase(Locale.ROOT);
+            if (step.isEmpty())
+                continue;
+            if (!step.equals("P") && !step.equals("C"))
+                throw new IllegalArgumentException("Unknown step " + step + " in " + script);
+            steps.add(step.charAt(0));
+        }
+        return new OrderScript(steps);
+    }
+
+    public OrderScript repeat(int times) {
+        List<Character> repeated = new ArrayList<>(steps.size() * times);
+        for (int i = 0; i < times; i++)
+            repeated.addAll(steps);
+        return new OrderScript(repeated);
+    }
+
+    public List<Character> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * Plays the script on an empty queue. Orders are created by producer 0 in sequence.
+     */
+    public Result run(OrderQueue orderQueue, OrderFactory orderFactory, OrderProcessor orderProcessor) {
+        int[] queueSizes = new int[steps.size()];
+        int blockedProducers = 0;
+        int waitingConsumers = 0;
+        int placed = 0;
+        int processed = 0;
+        int maxQueueSize = 0;
+        long sequence = 0;
+        for (int i = 0; i < steps.size(); i++) {
+            if (steps.get(i) == 'P') {
+                if (orderQueue.offerOrder(orderFactory.produceOrder(0, ++sequence)))
+                    placed++;
+                else {
+                    sequence--;
+                    blockedProducers++;
+                }
+            } else if (process(orderQueue, orderProcessor))
+                processed++;
+            else
+                waitingConsumers++;
+            // Wake up whoever was waiting for what this step did
+            while (waitingConsumers > 0 && process(orderQueue, orderProcessor)) {
+                waitingConsumers--;
+                processed++;
+            }
+            while (blockedProducers > 0 && orderQueue.offerOrder(orderFactory.produceOrder(0, ++sequence))) {
+                blockedProducers--;
+                placed++;
+                while (waitingConsumers > 0 && process(orderQueue, orderProcessor)) {
+                    waitingConsumers--;
+                    processed++;
+                }
+            }
+            queueSizes[i] = orderQueue.currentSize();
+            maxQueueSize = Math.max(maxQueueSize, queueSizes[i]);
+        }
+        return new Result(placed, processed, blockedProducers, waitingConsumers, maxQueueSize, queueSizes);
+    }
+
+    private static boolean process(OrderQueue orderQueue, OrderProcessor orderProcessor) {
+        Order order = orderQueue.pollOrder();
+        if (order == null)
+            return false;
+        orderProcessor.processOrder(order);
+        orderQueue.acknowledge(order);
+        order.release();
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(", ", steps.stream().map(String::valueOf).toList());
+    }
+
+    /**
+     * Orders placed and processed, producers still blocked on a full queue and consumers still waiting on an empty
+     * one at the end, and the queue size after every step.
+     */
+    public record Result(int placed,
+                         int processed,
+                         int blockedProducers,
+                         int waitingConsumers,
+                         int maxQueueSize,
+                         int[] queueSizes) {
+
+        @Override
+        public String toString() {
+            return "Result[placed=" + placed + ", processed=" + processed + ", blockedProducers=" + blockedProducers
+                    + ", waitingConsumers=" + waitingConsumers + ", queueSizes=" + Arrays.toString(queueSizes) + "]";
+        }
+    }
+}